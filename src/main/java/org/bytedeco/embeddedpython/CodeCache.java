@@ -0,0 +1,82 @@
+package org.bytedeco.embeddedpython;
+
+import org.bytedeco.cpython.PyObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.bytedeco.cpython.global.python.Py_DecRef;
+import static org.bytedeco.cpython.global.python.Py_IncRef;
+
+/**
+ * LRU cache of compiled Python code objects keyed by the source code.
+ * <p>
+ * This class is not thread-safe. The caller must hold the GIL.
+ */
+class CodeCache {
+    private final LinkedHashMap<String, PyObject> map = new LinkedHashMap<>(16, 0.75f, true);
+    private int capacity;
+    private long hitCount;
+    private long missCount;
+
+    CodeCache(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * Don't forget to call Py_DecRef() if the return value is not null.
+     */
+    PyObject get(String src) {
+        PyObject co = map.get(src);
+        if (co == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        Py_IncRef(co);
+        return co;
+    }
+
+    /**
+     * The reference count of the code object is incremented if it is cached.
+     */
+    void put(String src, PyObject co) {
+        if (capacity == 0) return;
+        Py_IncRef(co);
+        PyObject old = map.put(src, co);
+        if (old != null) Py_DecRef(old);
+        trim();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    void setCapacity(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("capacity = " + capacity);
+        this.capacity = capacity;
+        trim();
+    }
+
+    long getHitCount() {
+        return hitCount;
+    }
+
+    long getMissCount() {
+        return missCount;
+    }
+
+    void clear() {
+        map.values().forEach(co -> Py_DecRef(co));
+        map.clear();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, PyObject>> it = map.entrySet().iterator();
+        while (map.size() > capacity) {
+            Py_DecRef(it.next().getValue());
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.bytedeco.embeddedpython;
+
+import org.bytedeco.cpython.PyThreadState;
+import org.bytedeco.javacpp.Pointer;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.bytedeco.cpython.global.python.*;
+
+/**
+ * The Python global interpreter lock.
+ * <p>
+ * Each Java thread gets its own PyThreadState on the first call, and it is reused on the following calls.
+ * PyGILState_Ensure() would create and delete a PyThreadState on every call otherwise.
+ * The PyThreadState created here is deleted by the PythonThreadStateCleaner thread after the Java thread ends,
+ * so short-lived threads don't leak it.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * int gil = GIL.ensure();
+ * try {
+ *     ...
+ * } finally {
+ *     GIL.release(gil);
+ * }
+ * }</pre>
+ */
+class GIL {
+    private static final ThreadLocal<Owner> owners = new ThreadLocal<>();
+    // The Owner of a thread becomes unreachable when the thread ends.
+    private static final ReferenceQueue<Owner> endedOwners = new ReferenceQueue<>();
+    private static final Set<OwnerReference> ownerReferences = Collections.synchronizedSet(new HashSet<>());
+
+    static {
+        Thread cleaner = new Thread(GIL::deleteEndedThreadStates, "PythonThreadStateCleaner");
+        cleaner.setDaemon(true);
+        cleaner.start();
+    }
+
+    private GIL() {
+    }
+
+    static int ensure() {
+        if (owners.get() == null) {
+            Owner owner = new Owner();
+            if (PyGILState_GetThisThreadState() == null) {
+                // Bound to this thread and kept alive because its gilstate_counter starts from 1.
+                PyThreadState threadState = PyThreadState_New(PyInterpreterState_Main());
+                ownerReferences.add(new OwnerReference(owner, threadState.address()));
+            }
+            owners.set(owner);
+        }
+        return PyGILState_Ensure();
+    }
+
+    static void release(int state) {
+        PyGILState_Release(state);
+    }
+
+    /**
+     * Deleting a PyThreadState bound to another thread would unbind the PyThreadState of the caller
+     * from PyGILState_GetThisThreadState(). Therefore, this thread takes over the ended PyThreadState
+     * and deletes it as the current one, as a Python thread does at its end.
+     */
+    private static void deleteEndedThreadStates() {
+        while (true) {
+            OwnerReference ref;
+            try {
+                ref = (OwnerReference) endedOwners.remove();
+            } catch (InterruptedException e) {
+                return;
+            }
+            ownerReferences.remove(ref);
+            PyThreadState threadState = new PyThreadState(new Pointer() {{
+                address = ref.threadStateAddress;
+            }});
+            PyEval_RestoreThread(threadState);
+            PyThreadState_Clear(threadState);
+            // Releases the GIL.
+            PyThreadState_DeleteCurrent();
+        }
+    }
+
+    /**
+     * Held only by the ThreadLocal of its thread.
+     */
+    private static class Owner {
+    }
+
+    private static class OwnerReference extends PhantomReference<Owner> {
+        final long threadStateAddress;
+
+        OwnerReference(Owner owner, long threadStateAddress) {
+            super(owner, endedOwners);
+            this.threadStateAddress = threadStateAddress;
+        }
+    }
+}
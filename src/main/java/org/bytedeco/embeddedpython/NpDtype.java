@@ -0,0 +1,71 @@
+package org.bytedeco.embeddedpython;
+
+import static org.bytedeco.numpy.global.numpy.*;
+
+/**
+ * Numpy dtype of {@link NpNdarrayView}.
+ */
+public enum NpDtype {
+    BOOL("np.bool8", NPY_BOOL, 1),
+    INT8("np.int8", NPY_BYTE, 1),
+    INT16("np.int16", NPY_SHORT, 2),
+    UINT16("np.uint16", NPY_USHORT, 2),
+    INT32("np.int32", NPY_INT, 4),
+    INT64("np.int64", NPY_LONGLONG, 8),
+    FLOAT32("np.float32", NPY_FLOAT, 4),
+    FLOAT64("np.float64", NPY_DOUBLE, 8);
+
+    private final String pythonName;
+    final int typeNum;
+    private final int itemsize;
+
+    NpDtype(String pythonName, int typeNum, int itemsize) {
+        this.pythonName = pythonName;
+        this.typeNum = typeNum;
+        this.itemsize = itemsize;
+    }
+
+    /**
+     * @return The bytes of element.
+     */
+    public int itemsize() {
+        return itemsize;
+    }
+
+    /**
+     * @return The Python name like "np.float32".
+     */
+    public String pythonName() {
+        return pythonName;
+    }
+
+    /**
+     * @param typeChar The dtype.char of numpy.
+     * @param itemsize The dtype.itemsize of numpy.
+     * @return The dtype, or null if it is not supported.
+     */
+    static NpDtype of(int typeChar, int itemsize) {
+        switch (typeChar) {
+            case NPY_BOOLLTR:
+                return BOOL;
+            case NPY_BYTELTR:
+                return INT8;
+            case NPY_SHORTLTR:
+                return INT16;
+            case NPY_USHORTLTR:
+                return UINT16;
+            case NPY_INTLTR:
+                return INT32;
+            case NPY_LONGLTR:
+                return itemsize == 4 ? INT32 : itemsize == 8 ? INT64 : null;
+            case NPY_LONGLONGLTR:
+                return INT64;
+            case NPY_FLOATLTR:
+                return FLOAT32;
+            case NPY_DOUBLELTR:
+                return FLOAT64;
+            default:
+                return null;
+        }
+    }
+}
@@ -32,7 +32,7 @@ public abstract class NpNdarray implements Serializable {
         this.strides = toContiguousStrides(shape);
     }
 
-    private static int[] toContiguousStrides(int[] shape) {
+    static int[] toContiguousStrides(int[] shape) {
         int[] strides = new int[shape.length];
         int s = 1;
         for (int i = shape.length - 1; i >= 0; i--) {
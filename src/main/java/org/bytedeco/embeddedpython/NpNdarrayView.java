@@ -0,0 +1,331 @@
+package org.bytedeco.embeddedpython;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.indexer.Indexer;
+
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.nio.*;
+
+/**
+ * Numpy np.ndarray shared with Python without copying.
+ * <p>
+ * The memory of the ndarray is accessed directly through {@link #buffer()} or {@link #pointer()},
+ * and the changes are visible on both sides.
+ * The ndarray is kept alive until {@link #close()} is called or this view becomes unreachable.
+ * Don't use the buffer or the pointer after that.
+ * <p>
+ * The element at index (i0, i1, ...) is at the byte offset {@link #byteOffset(long...)}
+ * = (i0 * strides[0] + i1 * strides[1] + ...) * itemsize.
+ * <p>
+ * Python to Java conversions return a view if the ndarray is larger than {@link Python#setNdarrayViewThreshold(long)},
+ * and a view is converted back to the same ndarray.
+ * <p>
+ * A view of Java memory is created by {@link #of(Buffer, NpDtype, int...)}, {@link #of(Pointer, NpDtype, int...)},
+ * or {@link #of(Indexer, NpDtype)}. Java to Python conversions wrap the memory in np.ndarray without copying,
+ * and the Java buffer, pointer, or indexer is kept reachable until the ndarray is released by Python.
+ *
+ * <pre>{@code
+ * FloatBuffer buf = ByteBuffer.allocateDirect(6 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+ * Python.put("v", NpNdarrayView.of(buf, NpDtype.FLOAT32, 2, 3));
+ * }</pre>
+ */
+public class NpNdarrayView extends NpNdarray implements AutoCloseable {
+    private static final long serialVersionUID = 1L;
+
+    private final NpDtype dtype;
+    private final boolean writeable;
+    private final long byteSize;
+    private final transient PyRef ref;
+    private final transient Object owner;
+    private transient volatile Pointer data;
+
+    NpNdarrayView(PyRef ref, Pointer data, long byteSize, NpDtype dtype, int[] shape, int[] strides, boolean writeable) {
+        this(ref, null, data, byteSize, dtype, shape, strides, writeable);
+    }
+
+    private NpNdarrayView(PyRef ref, Object owner, Pointer data, long byteSize, NpDtype dtype,
+                          int[] shape, int[] strides, boolean writeable) {
+        super(shape, strides);
+        this.ref = ref;
+        this.owner = owner;
+        this.data = data;
+        this.byteSize = byteSize;
+        this.dtype = dtype;
+        this.writeable = writeable;
+    }
+
+    /**
+     * Create a C-contiguous view of the direct NIO buffer. The view starts at the position of the buffer.
+     *
+     * @param buffer The direct buffer. The byte order must be the native order.
+     * @param dtype  The dtype of the elements.
+     * @param shape  The shape of the ndarray.
+     * @return The view of the buffer.
+     * @throws IllegalArgumentException If the buffer is not direct, is not in the native order,
+     *                                  or is smaller than the shape.
+     */
+    public static NpNdarrayView of(Buffer buffer, NpDtype dtype, int... shape) {
+        if (!buffer.isDirect()) throw new IllegalArgumentException("The buffer must be direct. " + buffer);
+        checkNativeOrder(buffer, dtype);
+        long unit = bufferUnit(buffer);
+        long address = new Pointer(buffer).address() + buffer.position() * unit;
+        return contiguous(buffer, address, buffer.remaining() * unit, !buffer.isReadOnly(), dtype, shape);
+    }
+
+    /**
+     * Create a C-contiguous view of the native memory. The view starts at the position of the pointer.
+     *
+     * @param pointer The pointer to the native memory.
+     * @param dtype   The dtype of the elements.
+     * @param shape   The shape of the ndarray.
+     * @return The view of the memory.
+     * @throws IllegalArgumentException If the pointer is null or its limit is smaller than the shape.
+     */
+    public static NpNdarrayView of(Pointer pointer, NpDtype dtype, int... shape) {
+        if (pointer.isNull()) throw new IllegalArgumentException("The pointer is null.");
+        long unit = pointer.sizeof();
+        long address = pointer.address() + pointer.position() * unit;
+        long end = pointer.limit() > 0 ? pointer.limit() : pointer.capacity();
+        long available = end > 0 ? (end - pointer.position()) * unit : Long.MAX_VALUE;
+        return contiguous(pointer, address, available, true, dtype, shape);
+    }
+
+    /**
+     * Create a view of the native memory of the indexer with its sizes and strides.
+     *
+     * @param indexer The indexer backed by a pointer or a direct buffer.
+     * @param dtype   The dtype of the elements. Its itemsize must be the element size of the indexer.
+     * @return The view of the memory.
+     * @throws IllegalArgumentException If the indexer is backed by a Java array or a buffer not in the native order,
+     *                                  or the itemsize differs.
+     */
+    public static NpNdarrayView of(Indexer indexer, NpDtype dtype) {
+        long address;
+        long unit;
+        boolean writeable = true;
+        Pointer pointer = indexer.pointer();
+        Buffer buffer = indexer.buffer();
+        if (pointer != null && !pointer.isNull()) {
+            unit = pointer.sizeof();
+            address = pointer.address() + pointer.position() * unit;
+        } else if (buffer != null && buffer.isDirect()) {
+            unit = bufferUnit(buffer);
+            address = new Pointer(buffer).address() + buffer.position() * unit;
+            writeable = !buffer.isReadOnly();
+            checkNativeOrder(buffer, dtype);
+        } else {
+            throw new IllegalArgumentException("The indexer must be backed by a pointer or a direct buffer. " + indexer);
+        }
+        if (unit != dtype.itemsize()) {
+            throw new IllegalArgumentException("dtype.itemsize = " + dtype.itemsize() + ", element size = " + unit);
+        }
+
+        int[] shape = new int[indexer.rank()];
+        for (int i = 0; i < shape.length; i++) {
+            shape[i] = toInt(indexer.size(i));
+        }
+        int[] strides = stridesOf(indexer, shape);
+        long byteSize = dtype.itemsize();
+        for (int i = 0; i < shape.length; i++) {
+            if (strides[i] < 0) throw new IllegalArgumentException("Negative strides are not supported. " + indexer);
+            if (shape[i] == 0) {
+                byteSize = 0;
+                break;
+            }
+            byteSize += (long) (shape[i] - 1) * strides[i] * dtype.itemsize();
+        }
+        return new NpNdarrayView(null, indexer, addressPointer(address), byteSize, dtype, shape, strides, writeable);
+    }
+
+    private static NpNdarrayView contiguous(Object owner, long address, long available, boolean writeable,
+                                            NpDtype dtype, int[] shape) {
+        long byteSize = dtype.itemsize();
+        for (int n : shape) {
+            if (n < 0) throw new IllegalArgumentException("shape contains a negative value.");
+            byteSize *= n;
+        }
+        if (byteSize > available) {
+            throw new IllegalArgumentException("The memory is smaller than the shape. " +
+                    "required bytes = " + byteSize + ", available bytes = " + available);
+        }
+        return new NpNdarrayView(null, owner, addressPointer(address), byteSize, dtype,
+                shape.clone(), toContiguousStrides(shape), writeable);
+    }
+
+    private static long bufferUnit(Buffer buffer) {
+        if (buffer instanceof ByteBuffer) return 1;
+        if (buffer instanceof ShortBuffer || buffer instanceof CharBuffer) return 2;
+        if (buffer instanceof IntBuffer || buffer instanceof FloatBuffer) return 4;
+        return 8;
+    }
+
+    private static Pointer addressPointer(long value) {
+        return new Pointer() {
+            {
+                address = value;
+            }
+        };
+    }
+
+    /**
+     * The strides are measured by the index of the neighbor element in each dimension,
+     * because Indexer.strides() is deprecated.
+     *
+     * @throws IllegalArgumentException If the index of the indexer is not strided, like a hyperslab.
+     */
+    private static int[] stridesOf(Indexer indexer, int[] shape) {
+        int ndim = shape.length;
+        int[] strides = toContiguousStrides(shape);
+        if (ndim == 0) return strides;
+        long[] pos = new long[ndim];
+        long origin = indexer.index(pos);
+        long last = origin;
+        for (int i = 0; i < ndim; i++) {
+            if (shape[i] <= 1) continue;
+            pos[i] = 1;
+            strides[i] = toInt(indexer.index(pos) - origin);
+            pos[i] = 0;
+            last += (long) (shape[i] - 1) * strides[i];
+        }
+        for (int i = 0; i < ndim; i++) {
+            pos[i] = Math.max(shape[i] - 1, 0);
+        }
+        if (indexer.index(pos) != last) {
+            throw new IllegalArgumentException("The index of the indexer must be strided. " + indexer);
+        }
+        return strides;
+    }
+
+    private static int toInt(long value) {
+        if (value > Integer.MAX_VALUE) throw new IllegalArgumentException("Too large value " + value);
+        return (int) value;
+    }
+
+    /**
+     * numpy reads the elements in the native order. The order of single bytes doesn't matter.
+     */
+    private static void checkNativeOrder(Buffer buffer, NpDtype dtype) {
+        if (dtype.itemsize() == 1) return;
+        ByteOrder order;
+        if (buffer instanceof ByteBuffer) order = ((ByteBuffer) buffer).order();
+        else if (buffer instanceof ShortBuffer) order = ((ShortBuffer) buffer).order();
+        else if (buffer instanceof CharBuffer) order = ((CharBuffer) buffer).order();
+        else if (buffer instanceof IntBuffer) order = ((IntBuffer) buffer).order();
+        else if (buffer instanceof FloatBuffer) order = ((FloatBuffer) buffer).order();
+        else if (buffer instanceof LongBuffer) order = ((LongBuffer) buffer).order();
+        else order = ((DoubleBuffer) buffer).order();
+        if (order != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("The byte order of the buffer must be the native order " +
+                    ByteOrder.nativeOrder() + ". " + buffer);
+        }
+    }
+
+    /**
+     * @return The dtype of the ndarray.
+     */
+    public NpDtype dtype() {
+        return dtype;
+    }
+
+    @Override
+    public int itemsize() {
+        return dtype.itemsize();
+    }
+
+    /**
+     * @return false if the ndarray is read-only.
+     */
+    public boolean isWriteable() {
+        return writeable;
+    }
+
+    /**
+     * @return The bytes from the first element to the end of the last element.
+     */
+    public long byteSize() {
+        return byteSize;
+    }
+
+    /**
+     * @param index The index of each dimension.
+     * @return The byte offset of the element from the start of {@link #buffer()} and {@link #pointer()}.
+     */
+    public long byteOffset(long... index) {
+        if (index.length != shape.length) {
+            throw new IllegalArgumentException("ndim = " + shape.length + ", index.length = " + index.length);
+        }
+        long offset = 0;
+        for (int i = 0; i < index.length; i++) {
+            if (index[i] < 0 || index[i] >= shape[i]) throw new IndexOutOfBoundsException("index[" + i + "] = " + index[i]);
+            offset += index[i] * strides[i];
+        }
+        return offset * itemsize();
+    }
+
+    /**
+     * @return A new direct ByteBuffer over the memory of the ndarray in the native byte order.
+     * It is read-only if the ndarray is read-only.
+     * @throws IllegalStateException    If this view is already closed.
+     * @throws IllegalArgumentException If the ndarray is larger than 2 GB. Use {@link #pointer()}.
+     */
+    public ByteBuffer buffer() {
+        if (byteSize > Integer.MAX_VALUE) throw new IllegalArgumentException("byteSize = " + byteSize);
+        ByteBuffer buf = pointer().capacity(byteSize).asByteBuffer().order(ByteOrder.nativeOrder());
+        return writeable ? buf : buf.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return A new pointer to the first element of the ndarray.
+     * @throws IllegalStateException If this view is already closed.
+     */
+    public BytePointer pointer() {
+        Pointer p = data;
+        if (p == null) throw new IllegalStateException("The NpNdarrayView is already closed.");
+        return new BytePointer(p);
+    }
+
+    /**
+     * @return The Python ndarray, or null if this is a view of Java memory.
+     */
+    PyRef ref() {
+        return ref;
+    }
+
+    /**
+     * @return The Java buffer, pointer, or indexer, or null if this is a view of a Python ndarray.
+     */
+    Object owner() {
+        return owner;
+    }
+
+    /**
+     * @return true if {@link #close()} is already called.
+     */
+    public boolean isClosed() {
+        return data == null;
+    }
+
+    /**
+     * Release the ndarray.
+     * The ndarrays created from a view of Java memory stay valid until Python releases them.
+     */
+    @Override
+    public void close() {
+        data = null;
+        if (ref != null) ref.close();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws NotSerializableException {
+        throw new NotSerializableException("NpNdarrayView cannot be serialized. Copy the data.");
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+                "dtype=" + dtype.pythonName() +
+                ", " + super.toString() +
+                '}';
+    }
+}
@@ -0,0 +1,43 @@
+package org.bytedeco.embeddedpython;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Platform threads running the Python calls of virtual threads.
+ * <p>
+ * A virtual thread must not call the Python API by itself.
+ * Waiting for the GIL inside native code would pin the carrier thread,
+ * and the Python thread state would be bound to the carrier thread instead of the virtual thread.
+ * <p>
+ * The pool has no upper bound, so the calls run in parallel as on platform threads,
+ * and a call waiting for another virtual thread that calls Python doesn't deadlock.
+ * Idle threads exit after 60 seconds.
+ */
+class PlatformThreads {
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService executor = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+        Thread thread = new Thread(r, "PythonPlatformThread-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private PlatformThreads() {
+    }
+
+    /**
+     * Run the task on a platform thread. The calling virtual thread parks until the task finishes.
+     */
+    static <T> T call(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+}
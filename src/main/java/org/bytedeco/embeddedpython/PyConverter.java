@@ -0,0 +1,95 @@
+package org.bytedeco.embeddedpython;
+
+import org.bytedeco.cpython.PyObject;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * User-defined conversion between Java objects and Python objects, written against the CPython API.
+ * <p>
+ * A converter is registered by {@link Python#registerConverter(PyConverter)} and unregistered by
+ * {@link Python#unregisterConverter(PyConverter)},
+ * or listed in META-INF/services/org.bytedeco.embeddedpython.PyConverter to be loaded by ServiceLoader.
+ * Registered converters take precedence over the built-in conversions.
+ * If several converters match, the latest registered one wins.
+ * <p>
+ * The methods are called holding the GIL.
+ *
+ * <pre>{@code
+ * public class PointConverter implements PyConverter {
+ *     public Collection<Class<?>> javaClasses() {
+ *         return Collections.singletonList(Point.class);
+ *     }
+ *
+ *     public PyObject toPython(Object value, Context context) {
+ *         Point p = (Point) value;
+ *         return PyComplex_FromDoubles(p.x, p.y);
+ *     }
+ *
+ *     public Collection<String> pythonTypeNames() {
+ *         return Collections.singletonList("builtins.complex");
+ *     }
+ *
+ *     public Object toJava(PyObject obj, Context context) {
+ *         return new Point(PyComplex_RealAsDouble(obj), PyComplex_ImagAsDouble(obj));
+ *     }
+ * }
+ * }</pre>
+ */
+public interface PyConverter {
+    /**
+     * @return The Java classes converted by {@link #toPython(Object, Context)}. Their subclasses are included.
+     */
+    default Collection<Class<?>> javaClasses() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return The Python types converted by {@link #toJava(PyObject, Context)},
+     * named as __module__ + "." + __qualname__ like "decimal.Decimal" or "builtins.complex".
+     * Their subclasses are included.
+     */
+    default Collection<String> pythonTypeNames() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Convert the Java object to a Python object.
+     *
+     * This is called only for {@link #javaClasses()}, so a converter with no Java classes can return null.
+     *
+     * @param value   An instance of {@link #javaClasses()}.
+     * @param context Converts the elements of the value.
+     * @return A new reference, or null with a Python error set.
+     */
+    PyObject toPython(Object value, Context context);
+
+    /**
+     * Convert the Python object to a Java object.
+     *
+     * This is called only for {@link #pythonTypeNames()}, so a converter with no Python types can return null.
+     *
+     * @param obj     A borrowed reference to an instance of {@link #pythonTypeNames()}.
+     * @param context Converts the elements of the object.
+     * @return The Java object.
+     */
+    Object toJava(PyObject obj, Context context);
+
+    /**
+     * The conversion in progress, to convert the elements of a value by the built-in and registered converters.
+     */
+    interface Context {
+        /**
+         * @return A new reference.
+         * @throws PythonException If the value cannot be converted.
+         */
+        PyObject toPython(Object value);
+
+        /**
+         * @param obj A borrowed reference.
+         * @throws PythonException If the object cannot be converted.
+         */
+        Object toJava(PyObject obj);
+    }
+}
@@ -0,0 +1,132 @@
+package org.bytedeco.embeddedpython;
+
+import org.bytedeco.cpython.PyObject;
+import org.bytedeco.cpython.PyTypeObject;
+import org.bytedeco.javacpp.BytePointer;
+
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.bytedeco.cpython.global.python.*;
+
+/**
+ * The registered {@link PyConverter}s. This is immutable and replaced when a converter is registered or unregistered.
+ */
+class PyConverterRegistry {
+    static final PyConverterRegistry EMPTY = new PyConverterRegistry(
+            Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap());
+
+    // In the registration order.
+    private final List<PyConverter> converters;
+    private final Map<Class<?>, PyConverter> byClass;
+    private final Map<String, PyConverter> byTypeName;
+
+    private PyConverterRegistry(List<PyConverter> converters,
+                                Map<Class<?>, PyConverter> byClass, Map<String, PyConverter> byTypeName) {
+        this.converters = converters;
+        this.byClass = byClass;
+        this.byTypeName = byTypeName;
+    }
+
+    /**
+     * @return The registry of the converters found by ServiceLoader.
+     */
+    static PyConverterRegistry load() {
+        PyConverterRegistry registry = EMPTY;
+        for (PyConverter converter : ServiceLoader.load(PyConverter.class)) {
+            registry = registry.with(converter);
+        }
+        return registry;
+    }
+
+    /**
+     * @return A new registry without the converter, which is compared by identity.
+     */
+    PyConverterRegistry without(PyConverter converter) {
+        PyConverterRegistry registry = EMPTY;
+        for (PyConverter c : converters) {
+            if (c != converter) registry = registry.with(c);
+        }
+        return registry;
+    }
+
+    /**
+     * @return A new registry with the converter added.
+     */
+    PyConverterRegistry with(PyConverter converter) {
+        List<PyConverter> newConverters = new ArrayList<>(converters);
+        newConverters.add(converter);
+        Map<Class<?>, PyConverter> newByClass = new HashMap<>(byClass);
+        for (Class<?> c : converter.javaClasses()) {
+            newByClass.put(Objects.requireNonNull(c), converter);
+        }
+        Map<String, PyConverter> newByTypeName = new HashMap<>(byTypeName);
+        for (String name : converter.pythonTypeNames()) {
+            newByTypeName.put(Objects.requireNonNull(name), converter);
+        }
+        return new PyConverterRegistry(newConverters, newByClass, newByTypeName);
+    }
+
+    /**
+     * The class itself and its superclasses are searched first, and then the interfaces.
+     *
+     * @return The converter, or null if none matches.
+     */
+    PyConverter findForClass(Class<?> c) {
+        if (byClass.isEmpty()) return null;
+        for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+            PyConverter converter = byClass.get(k);
+            if (converter != null) return converter;
+        }
+        for (int i = converters.size() - 1; i >= 0; i--) {
+            PyConverter converter = converters.get(i);
+            for (Class<?> k : converter.javaClasses()) {
+                if (k.isInterface() && k.isAssignableFrom(c) && byClass.get(k) == converter) return converter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The types are searched in the MRO. The caller must hold the GIL.
+     *
+     * @return The converter, or null if none matches.
+     */
+    PyConverter findForType(PyTypeObject t) {
+        if (byTypeName.isEmpty()) return null;
+        PyObject mro = t.tp_mro();
+        if (mro == null) return null;
+        long size = PyTuple_Size(mro);
+        for (long i = 0; i < size; i++) {
+            // Borrowed reference.
+            String name = typeName(PyTuple_GetItem(mro, i));
+            PyConverter converter = name == null ? null : byTypeName.get(name);
+            if (converter != null) return converter;
+        }
+        return null;
+    }
+
+    /**
+     * @return __module__ + "." + __qualname__, or null if they are not str.
+     */
+    private static String typeName(PyObject type) {
+        String module = strAttr(type, "__module__");
+        String qualname = strAttr(type, "__qualname__");
+        if (module == null || qualname == null) return null;
+        return module + "." + qualname;
+    }
+
+    private static String strAttr(PyObject obj, String name) {
+        PyObject attr = PyObject_GetAttrString(obj, name);
+        if (attr == null) {
+            PyErr_Clear();
+            return null;
+        }
+        try {
+            if (!PyTypes.PyUnicode_Check(attr)) return null;
+            return new BytePointer(PyUnicode_AsUTF8(attr)).getString(UTF_8);
+        } finally {
+            Py_DecRef(attr);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.bytedeco.embeddedpython;
+
+import org.bytedeco.cpython.PyObject;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.bytedeco.cpython.global.python.Py_DecRef;
+
+/**
+ * Reference to a live Python object.
+ * <p>
+ * The Python object stays on the Python side and is not converted to a Java object
+ * until {@link #toJava()} is called. A PyRef can be passed to {@link Python#put(String, Object)}
+ * and to the arguments of calls without any conversion.
+ * <p>
+ * Don't forget to call {@link #close()}.
+ * If a PyRef becomes unreachable without being closed,
+ * its Python object is released by the PythonRefReleaser thread, or earlier by a call that creates a PyRef.
+ */
+public class PyRef implements AutoCloseable {
+    private static final ReferenceQueue<PyRef> queue = new ReferenceQueue<>();
+    private static final Set<Releaser> releasers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private volatile PyObject obj;
+    private final Releaser releaser;
+
+    static {
+        Thread releaserThread = new Thread(PyRef::releaseEnqueued, "PythonRefReleaser");
+        releaserThread.setDaemon(true);
+        releaserThread.start();
+    }
+
+    /**
+     * The caller must hold the GIL. The reference of obj is stolen.
+     */
+    PyRef(PyObject obj) {
+        releaseUnreachable();
+        this.obj = obj;
+        this.releaser = new Releaser(this, obj);
+        releasers.add(releaser);
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    PyObject pyObject() {
+        if (obj == null) throw new IllegalStateException("The PyRef is already closed.");
+        return obj;
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    void release() {
+        if (obj == null) return;
+        releasers.remove(releaser);
+        releaser.clear();
+        Py_DecRef(obj);
+        obj = null;
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    static void releaseUnreachable() {
+        Releaser releaser;
+        while ((releaser = (Releaser) queue.poll()) != null) {
+            release(releaser);
+        }
+    }
+
+    /**
+     * Release the unreachable PyRefs as they are enqueued, so it doesn't depend on creating new PyRefs.
+     */
+    private static void releaseEnqueued() {
+        while (true) {
+            Releaser releaser;
+            try {
+                releaser = (Releaser) queue.remove();
+            } catch (InterruptedException e) {
+                return;
+            }
+            int gil = GIL.ensure();
+            try {
+                release(releaser);
+                releaseUnreachable();
+            } finally {
+                GIL.release(gil);
+            }
+        }
+    }
+
+    private static void release(Releaser releaser) {
+        // The PyRef constructor can poll the same releaser first.
+        if (releasers.remove(releaser)) {
+            Py_DecRef(releaser.obj);
+        }
+    }
+
+    /**
+     * Convert the Python object to a Java object.
+     *
+     * @param <T> The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     * @throws PythonException If the value cannot convert to a Java object.
+     */
+    public <T> T toJava() {
+        return Python.toJava(this);
+    }
+
+    /**
+     * Python getattr().
+     *
+     * @param name The attribute name.
+     * @return The reference to the attribute value.
+     * @throws PythonException If the attribute cannot be got.
+     */
+    public PyRef getAttr(String name) {
+        return Python.getAttr(this, name);
+    }
+
+    /**
+     * Python obj[key].
+     *
+     * @param key The key. It is converted like {@link Python#put(String, Object)}.
+     * @return The reference to the item.
+     * @throws PythonException If the item cannot be got.
+     */
+    public PyRef getItem(Object key) {
+        return Python.getItem(this, key);
+    }
+
+    /**
+     * Call this Python object.
+     *
+     * @param args The arguments. They are converted like {@link Python#put(String, Object)}.
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the return value.
+     * @throws PythonException If the call throws an error or the values cannot be converted.
+     */
+    public <T> T call(Object... args) {
+        return Python.call(this, args);
+    }
+
+    /**
+     * Call this Python object without converting the return value.
+     *
+     * @param args The arguments. They are converted like {@link Python#put(String, Object)}.
+     * @return The reference to the return value.
+     * @throws PythonException If the call throws an error or the arguments cannot be converted.
+     */
+    public PyRef callRef(Object... args) {
+        return Python.callRef(this, args);
+    }
+
+    /**
+     * Call the method of this Python object.
+     *
+     * @param methodName The method name.
+     * @param args       The arguments. They are converted like {@link Python#put(String, Object)}.
+     * @param <T>        The Java class after conversion from Python.
+     * @return The Java object converted from the return value.
+     * @throws PythonException If the method throws an error or the values cannot be converted.
+     */
+    public <T> T callMethod(String methodName, Object... args) {
+        return Python.callMethod(this, methodName, args);
+    }
+
+    /**
+     * Call the method of this Python object without converting the return value.
+     *
+     * @param methodName The method name.
+     * @param args       The arguments. They are converted like {@link Python#put(String, Object)}.
+     * @return The reference to the return value.
+     * @throws PythonException If the method throws an error or the arguments cannot be converted.
+     */
+    public PyRef callMethodRef(String methodName, Object... args) {
+        return Python.callMethodRef(this, methodName, args);
+    }
+
+    /**
+     * @return true if {@link #close()} is already called.
+     */
+    public boolean isClosed() {
+        return obj == null;
+    }
+
+    /**
+     * Release the Python object.
+     */
+    @Override
+    public void close() {
+        Python.close(this);
+    }
+
+    /**
+     * @return Python str() of the object.
+     */
+    @Override
+    public String toString() {
+        return Python.str(this);
+    }
+
+    private static class Releaser extends PhantomReference<PyRef> {
+        final PyObject obj;
+
+        Releaser(PyRef ref, PyObject obj) {
+            super(ref, queue);
+            this.obj = obj;
+        }
+    }
+}
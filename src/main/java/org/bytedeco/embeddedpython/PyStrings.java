@@ -0,0 +1,96 @@
+package org.bytedeco.embeddedpython;
+
+import org.bytedeco.cpython.PyASCIIObject;
+import org.bytedeco.cpython.PyObject;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.CharPointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Pointer;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.bytedeco.cpython.global.python.*;
+
+/**
+ * Conversion between str and String through the PEP 393 representation of str,
+ * which stores the characters in 1, 2, or 4 bytes each.
+ * <p>
+ * The characters are copied in bulk without encoding to UTF-8,
+ * so Python doesn't have to create and keep the UTF-8 copy of each str.
+ * Lone surrogates are converted as is in both directions.
+ * <p>
+ * The caller must hold the GIL.
+ */
+class PyStrings {
+    private PyStrings() {
+    }
+
+    /**
+     * @param obj A str or its subclass.
+     */
+    static String toJavaString(PyObject obj) {
+        long length = PyUnicode_GET_LENGTH(obj);
+        if (length > Integer.MAX_VALUE) throw new PythonException("Cannot convert the too large str.");
+        int n = (int) length;
+        int kind = new PyASCIIObject(obj).state_kind();
+        Pointer data = PyUnicode_DATA(obj);
+        if (kind == PyUnicode_1BYTE_KIND) {
+            // ASCII or Latin-1, which are the first 256 code points of Unicode.
+            byte[] bytes = new byte[n];
+            new BytePointer(data).get(bytes);
+            return new String(bytes, ISO_8859_1);
+        } else if (kind == PyUnicode_2BYTE_KIND) {
+            char[] chars = new char[n];
+            new CharPointer(data).get(chars);
+            return new String(chars);
+        } else {
+            int[] codePoints = new int[n];
+            new IntPointer(data).get(codePoints);
+            return new String(codePoints, 0, n);
+        }
+    }
+
+    /**
+     * Don't forget to call Py_DecRef().
+     */
+    static PyObject toPyUnicode(String s) {
+        int n = s.length();
+        // The OR of the chars is less than 0x80 or 0x100 only if all of them are.
+        int or = 0;
+        boolean surrogate = false;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            or |= c;
+            surrogate |= Character.isSurrogate(c);
+        }
+
+        int[] codePoints = null;
+        int maxChar;
+        if (or < 0x80) {
+            maxChar = 0x7F;
+        } else if (or < 0x100) {
+            maxChar = 0xFF;
+        } else if (!surrogate) {
+            maxChar = 0xFFFF;
+        } else {
+            codePoints = s.codePoints().toArray();
+            maxChar = codePoints.length < n ? 0x10FFFF : 0xFFFF;
+        }
+
+        // PyUnicode_New() chooses the kind by maxChar. The characters are written to the new str directly.
+        int length = maxChar == 0x10FFFF ? codePoints.length : n;
+        PyObject obj = PyUnicode_New(length, maxChar);
+        if (obj == null) {
+            PyErr_Clear();
+            throw new PythonException("PyUnicode_New() failed. length = " + length);
+        }
+        Pointer data = PyUnicode_DATA(obj);
+        if (maxChar <= 0xFF) {
+            new BytePointer(data).put(s.getBytes(ISO_8859_1));
+        } else if (maxChar == 0xFFFF) {
+            new CharPointer(data).put(s.toCharArray());
+        } else {
+            new IntPointer(data).put(codePoints);
+        }
+        return obj;
+    }
+}
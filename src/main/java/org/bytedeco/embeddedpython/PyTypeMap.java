@@ -0,0 +1,101 @@
+package org.bytedeco.embeddedpython;
+
+/**
+ * Hash map from the address of a PyTypeObject to a value.
+ * <p>
+ * The table is open-addressing and copy-on-write.
+ * {@link #get(long)} doesn't lock or allocate, so it is cheap enough to call for every converted object.
+ * {@link #put(long, Object)} and {@link #remove(long)} copy the table,
+ * which is rare because a program uses a limited number of types.
+ *
+ * @param <V> The value type.
+ */
+class PyTypeMap<V> {
+    private final int maxSize;
+    private volatile Table table = new Table(16);
+
+    PyTypeMap(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param address The address of PyTypeObject. It must not be 0.
+     * @return The value, or null if the key is not found.
+     */
+    @SuppressWarnings("unchecked")
+    V get(long address) {
+        Table t = table;
+        int mask = t.keys.length - 1;
+        for (int i = hash(address) & mask; ; i = (i + 1) & mask) {
+            long key = t.keys[i];
+            if (key == address) return (V) t.values[i];
+            if (key == 0) return null;
+        }
+    }
+
+    /**
+     * @param address The address of PyTypeObject. It must not be 0.
+     * @param value   The value.
+     * @return true if the key is added. false if the key already exists or the map is full.
+     */
+    synchronized boolean put(long address, V value) {
+        Table t = table;
+        if (t.size >= maxSize || get(address) != null) return false;
+
+        int capacity = t.keys.length;
+        while ((t.size + 1) * 2 > capacity) capacity *= 2;
+        Table newTable = new Table(capacity);
+        for (int i = 0; i < t.keys.length; i++) {
+            if (t.keys[i] != 0) newTable.insert(t.keys[i], t.values[i]);
+        }
+        newTable.insert(address, value);
+        table = newTable;
+        return true;
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    int size() {
+        return table.size;
+    }
+
+    /**
+     * @param address The address of PyTypeObject. It must not be 0.
+     */
+    synchronized void remove(long address) {
+        Table t = table;
+        if (get(address) == null) return;
+
+        Table newTable = new Table(t.keys.length);
+        for (int i = 0; i < t.keys.length; i++) {
+            if (t.keys[i] != 0 && t.keys[i] != address) newTable.insert(t.keys[i], t.values[i]);
+        }
+        table = newTable;
+    }
+
+    private static int hash(long address) {
+        // Objects are aligned, so the low bits carry no information.
+        return (int) (((address >>> 4) * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    private static class Table {
+        final long[] keys;
+        final Object[] values;
+        int size;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+        }
+
+        void insert(long key, Object value) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+    }
+}
@@ -16,6 +16,9 @@ class PyTypes {
     static final PyTypeObject bytesType = PyBytes_Type();
     static final PyTypeObject byteArrayType = PyByteArray_Type();
     static final PyTypeObject dictType = PyDict_Type();
+    static final PyTypeObject listType = PyList_Type();
+    static final PyTypeObject tupleType = PyTuple_Type();
+    static final PyTypeObject moduleType = PyModule_Type();
     static final PyTypeObject boolArrType = PyBoolArrType_Type();
     static final PyTypeObject byteArrType = PyByteArrType_Type();
     static final PyTypeObject ushortArrType = PyUShortArrType_Type();
@@ -46,8 +49,12 @@ class PyTypes {
         return PyType_HasFeature(type, flag);
     }
 
+    static boolean PyType_IsSubtypeOf(PyTypeObject type, PyTypeObject base) {
+        return type.equals(base) || (PyType_IsSubtype(type, base) != 0);
+    }
+
     static boolean PyObject_TypeCheck(PyObject ob, PyTypeObject type) {
-        return Py_IS_TYPE(ob, type) || (PyType_IsSubtype(Py_TYPE(ob), type) != 0);
+        return PyType_IsSubtypeOf(Py_TYPE(ob), type);
     }
 
     static boolean PyNone_Check(PyObject x) {
@@ -81,4 +88,8 @@ class PyTypes {
     static boolean PyDict_Check(PyObject op) {
         return PyType_FastSubclass(Py_TYPE(op), Py_TPFLAGS_DICT_SUBCLASS);
     }
+
+    static boolean PyModule_Check(PyObject op) {
+        return PyObject_TypeCheck(op, moduleType);
+    }
 }
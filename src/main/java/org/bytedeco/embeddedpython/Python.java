@@ -1,6 +1,8 @@
 package org.bytedeco.embeddedpython;
 
 import org.bytedeco.cpython.PyCFunction;
+import org.bytedeco.cpython.PyCapsule_Destructor;
+import org.bytedeco.cpython.PyInterpreterState;
 import org.bytedeco.cpython.PyMethodDef;
 import org.bytedeco.cpython.PyObject;
 import org.bytedeco.cpython.PyTypeObject;
@@ -14,7 +16,10 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.bytedeco.cpython.global.python.*;
@@ -30,7 +35,10 @@ import static org.bytedeco.numpy.global.numpy.*;
  * If you embed two Python interpreters, many Python libraries do not work correctly.
  * Therefore this class is a singleton class. All the methods are static.
  * <p>
- * This class is thread-safe. All the methods are synchronized.
+ * This class is thread-safe. All the methods hold the Python GIL (global interpreter lock) while running.
+ * When the Python code releases the GIL, for example, in numpy, I/O, or time.sleep(),
+ * other Java threads and Python threads can run in parallel.
+ * Each Java thread keeps its own Python thread state for the following calls.
  */
 public class Python {
     static {
@@ -59,51 +67,196 @@ public class Python {
         PySys_SetArgvEx(1, new PointerPointer<>(1).put(Py_DecodeLocale("", null)), 0);
         _import_array();
 
-        Runtime.getRuntime().addShutdownHook(new Thread(python::Py_Finalize));
+        Runtime.getRuntime().addShutdownHook(new Thread(Python::shutdown));
+    }
+
+    /**
+     * Py_Finalize() cannot be called from the shutdown hook thread
+     * because threading._shutdown() waits for the main thread, which is not this thread.
+     * Therefore, this runs the atexit functions and flushes the stdio only.
+     */
+    private static void shutdown() {
+        int gil = GIL.ensure();
+        try {
+            PyRun_SimpleStringFlags("import atexit, sys\n" +
+                    "atexit._run_exitfuncs()\n" +
+                    "sys.stdout.flush()\n" +
+                    "sys.stderr.flush()\n", null);
+        } finally {
+            GIL.release(gil);
+        }
     }
 
     private static final PyObject mainModule = PyImport_AddModule("__main__");
     private static final PyObject globals = PyModule_GetDict(mainModule);
+    private static final PyInterpreterState mainInterpreter = PyInterpreterState_Main();
+    private static final CodeCache evalCodeCache = new CodeCache(256);
+    private static final CodeCache execCodeCache = new CodeCache(256);
+    private static volatile long ndarrayViewThreshold = Long.MAX_VALUE;
+    private static volatile boolean primitiveListConversion = false;
+    private static volatile int maxConversionDepth = 10_000;
+    private static volatile long maxConversionSize = Long.MAX_VALUE;
+    // Loaded on the first conversion, not to run the ServiceLoader providers while initializing this class.
+    private static volatile PyConverterRegistry converterRegistry;
+    // bool and np.bool_ are singletons.
+    private static final long trueAddress = _Py_TrueStruct().address();
+    private static final long falseAddress = _Py_FalseStruct().address();
+    private static final long npTrueAddress = _PyArrayScalar_BoolValues(1).address();
+    private static final long npFalseAddress = _PyArrayScalar_BoolValues(0).address();
+    // Java owners of the memory wrapped by wrapJavaMemory(). Guarded by the GIL.
+    private static final HashMap<Long, Object> javaOwners = new HashMap<>();
+    private static long javaOwnerKey = 1;
+    private static final BytePointer JAVA_OWNER_CAPSULE_NAME = new BytePointer("org.bytedeco.embeddedpython.owner");
+    private static final PyCapsule_Destructor javaOwnerDestructor = new PyCapsule_Destructor() {
+        @Override
+        public void call(PyObject capsule) {
+            javaOwners.remove(PyCapsule_GetPointer(capsule, JAVA_OWNER_CAPSULE_NAME).address());
+        }
+    };
+
+    static {
+        // Release the GIL held since Py_Initialize(). Each method acquires it by withGIL().
+        PyEval_SaveThread();
+    }
 
     private Python() {
     }
 
+    /**
+     * Run the task holding the GIL.
+     * <p>
+     * A virtual thread hands the task to a platform thread of {@link PlatformThreads} and parks until it finishes.
+     */
+    static <T> T withGIL(Supplier<T> task) {
+        if (VirtualThreads.isVirtual()) return PlatformThreads.call(() -> withGIL(task));
+        int gil = GIL.ensure();
+        try {
+            return task.get();
+        } finally {
+            GIL.release(gil);
+        }
+    }
+
+    /**
+     * Run the task holding the GIL. See {@link #withGIL(Supplier)}.
+     */
+    static void withGIL(Runnable task) {
+        withGIL(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Calling this method runs the static initializer of this class, which initializes the main interpreter.
+     */
+    static void ensureInitialized() {
+    }
+
+    /**
+     * Don't forget to call Py_DecRef().
+     */
+    private static PyObject compile(String src, int start) {
+        return compile(start == Py_eval_input ? evalCodeCache : execCodeCache, src, start);
+    }
+
     /**
      * Don't forget to call Py_DecRef().
      */
-    private static PyObject compile(String src) {
-        PyObject co = Py_CompileString(src, "<string>", Py_eval_input);
+    static PyObject compile(CodeCache codeCache, String src, int start) {
+        PyObject co = codeCache.get(src);
+        if (co != null) return co;
+
+        co = Py_CompileString(src, "<string>", start);
         if (co == null) {
             if (PyErr_Occurred() != null) {
                 PyErr_Print();
             }
             throw new PythonException("Py_CompileString() failed. src = " + src);
         }
+        codeCache.put(src, co);
         return co;
     }
 
+    /**
+     * Don't forget to call Py_DecRef().
+     */
+    static PyObject evalCode(PyObject co, PyObject globals, PyObject locals, String src) {
+        PyObject obj = PyEval_EvalCode(co, globals, locals);
+        if (obj == null) {
+            if (PyErr_Occurred() != null) {
+                PyErr_Print();
+                throw new PythonException("PyEval_EvalCode() failed. An Error is thrown inside Python. src = " + src);
+            } else {
+                throw new PythonException("PyEval_EvalCode() failed. src = " + src);
+            }
+        }
+        return obj;
+    }
+
     /**
      * Python built-in eval().
+     * <p>
+     * The compiled code is cached. See {@link #setCodeCacheCapacity(int)}.
      *
      * @param src Python code. This must be a single line code.
      * @param <T> The Java class after conversion from Python.
      * @return The Java object converted from the Python object.
      */
+    public static <T> T eval(String src) {
+        return withGIL(() -> evalImpl(src, new TypeTreeBuilder(1)));
+    }
+
+    /**
+     * Python built-in eval() converting the value to the given Java class.
+     * <p>
+     * Scalars are read directly into the primitive type, and an int is not accepted as a long if it overflows.
+     * Primitive arrays such as double[] or float[][] and NpNdarray classes are converted
+     * like np.array(value, dtype=...), so lists are converted without boxing.
+     * The other classes are converted like {@link #eval(String)} and checked.
+     *
+     * <pre>{@code
+     * double[] v = Python.eval("[1.0, 2.0, 3.0]", double[].class);
+     * }</pre>
+     *
+     * @param src  Python code. This must be a single line code.
+     * @param type The Java class after conversion from Python. Primitive classes return the boxed values.
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     * @throws PythonException If the value cannot convert to the Java class.
+     */
+    public static <T> T eval(String src, Class<T> type) {
+        return withGIL(() -> {
+            PyObject co = compile(src, Py_eval_input);
+            try {
+                PyObject obj = evalCode(co, globals, globals, src);
+                try {
+                    return TypedConverter.toJava(obj, type, new TypeTreeBuilder(1));
+                } finally {
+                    Py_DecRef(obj);
+                }
+            } finally {
+                Py_DecRef(co);
+            }
+        });
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    static <T> T evalImpl(String src, TypeTreeBuilder builder) {
+        return evalImpl(globals, src, builder);
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
     @SuppressWarnings("unchecked")
-    public synchronized static <T> T eval(String src) {
-        PyObject co = compile(src);
+    static <T> T evalImpl(PyObject globals, String src, TypeTreeBuilder builder) {
+        PyObject co = compile(src, Py_eval_input);
         try {
-            PyObject obj = PyEval_EvalCode(co, globals, globals);
+            PyObject obj = evalCode(co, globals, globals, src);
             try {
-                if (obj == null) {
-                    if (PyErr_Occurred() != null) {
-                        PyErr_Print();
-                        throw new PythonException("PyEval_EvalCode() failed. An Error is thrown inside Python. src = " + src);
-                    } else {
-                        throw new PythonException("PyEval_EvalCode() failed. src = " + src);
-                    }
-                }
-                TypeTreeBuilder builder = new TypeTreeBuilder(1);
                 return (T) toJava(obj, builder);
             } finally {
                 Py_DecRef(obj);
@@ -115,13 +268,335 @@ public class Python {
 
     /**
      * Python built-in exec().
+     * <p>
+     * The compiled code is cached. See {@link #setCodeCacheCapacity(int)}.
      *
      * @param src Python code. This can be multiple lines code.
      */
-    public synchronized static void exec(String src) {
-        if (PyRun_SimpleStringFlags(src, null) != 0) {
-            throw new PythonException("PyRun_SimpleStringFlags() failed. src = " + src);
+    public static void exec(String src) {
+        withGIL(() -> execImpl(src));
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    static void execImpl(String src) {
+        execImpl(globals, src);
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    static void execImpl(PyObject globals, String src) {
+        PyObject co = compile(src, Py_file_input);
+        try {
+            Py_DecRef(evalCode(co, globals, globals, src));
+        } finally {
+            Py_DecRef(co);
+        }
+    }
+
+    /**
+     * Run the operations under a single GIL acquisition.
+     * Other Java threads cannot interleave Python calls between the operations,
+     * unless the Python code releases the GIL.
+     *
+     * <pre>{@code
+     * double v = Python.batch(session -> {
+     *     session.put("a", 355);
+     *     session.put("b", 113);
+     *     session.exec("v = a / b");
+     *     return session.get("v");
+     * });
+     * }</pre>
+     *
+     * @param block The operations.
+     * @param <T>   The return type of the block.
+     * @return The return value of the block.
+     */
+    public static <T> T batch(Function<PythonSession, T> block) {
+        return withGIL(() -> {
+            PythonSession session = new PythonSession();
+            try {
+                return block.apply(session);
+            } finally {
+                session.close();
+            }
+        });
+    }
+
+    /**
+     * The asynchronous front end. The operations are queued to a dedicated Python thread
+     * and return CompletableFuture.
+     *
+     * @return The singleton instance of PythonAsync.
+     */
+    public static PythonAsync async() {
+        return AsyncHolder.instance;
+    }
+
+    private static class AsyncHolder {
+        static final PythonAsync instance = new PythonAsync(1024);
+    }
+
+    /**
+     * Compile the Python code once and bind the arguments on each execution.
+     * <p>
+     * If the source code is a single expression, {@link PythonStatement#execute(Object...)} returns its value.
+     * Otherwise, the source code is executed like {@link #exec(String)}, and null is returned.
+     * <p>
+     * The parameters are local variables. Like a class body,
+     * functions and lambdas defined inside the source code cannot see them.
+     *
+     * <pre>{@code
+     * try (PythonStatement stmt = Python.prepare("a * x + b", "x")) {
+     *     double y = stmt.execute(1.5);
+     * }
+     * }</pre>
+     *
+     * @param src        Python code.
+     * @param paramNames The parameter names.
+     * @return The prepared statement.
+     * @throws PythonException If the source code has a syntax error.
+     */
+    public static PythonStatement prepare(String src, String... paramNames) {
+        return withGIL(() -> {
+            boolean expression = true;
+            PyObject co = Py_CompileString(src, "<string>", Py_eval_input);
+            if (co == null) {
+                PyErr_Clear();
+                expression = false;
+                co = compile(src, Py_file_input);
+            }
+
+            PyObject[] paramKeys = new PyObject[paramNames.length];
+            for (int i = 0; i < paramNames.length; i++) {
+                paramKeys[i] = PyUnicode_InternFromString(paramNames[i]);
+            }
+            return new PythonStatement(src, paramNames.clone(), expression, co, paramKeys);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T execute(PythonStatement stmt, Object[] args) {
+        return withGIL(() -> {
+            if (stmt.code == null) throw new IllegalStateException("The statement is already closed. " + stmt);
+
+            PyObject locals = PyDict_New();
+            try {
+                for (int i = 0; i < args.length; i++) {
+                    TypeTreeBuilder builder = new TypeTreeBuilder(1);
+                    PyObject value = toPyObject(args[i], builder);
+                    try {
+                        if (PyDict_SetItem(locals, stmt.paramKeys[i], value) != 0) {
+                            throw new PythonException("PyDict_SetItem() failed");
+                        }
+                    } finally {
+                        Py_DecRef(value);
+                    }
+                }
+
+                PyObject obj = evalCode(stmt.code, globals, locals, stmt.src);
+                try {
+                    if (!stmt.expression) return null;
+                    TypeTreeBuilder builder = new TypeTreeBuilder(1);
+                    return (T) toJava(obj, builder);
+                } finally {
+                    Py_DecRef(obj);
+                }
+            } finally {
+                Py_DecRef(locals);
+            }
+        });
+    }
+
+    static void close(PythonStatement stmt) {
+        withGIL(() -> {
+            if (stmt.code == null) return;
+            Py_DecRef(stmt.code);
+            for (PyObject key : stmt.paramKeys) {
+                Py_DecRef(key);
+            }
+            stmt.code = null;
+            stmt.paramKeys = null;
+        });
+    }
+
+    /**
+     * Set the maximum number of compiled code objects cached
+     * for each of {@link #eval(String)} and {@link #exec(String)}.
+     * The least recently used code objects are evicted first.
+     * The default capacity is 256. 0 disables the cache.
+     *
+     * @param capacity The maximum number of cached code objects.
+     */
+    public static void setCodeCacheCapacity(int capacity) {
+        withGIL(() -> {
+            evalCodeCache.setCapacity(capacity);
+            execCodeCache.setCapacity(capacity);
+        });
+    }
+
+    /**
+     * @return The maximum number of compiled code objects cached
+     * for each of {@link #eval(String)} and {@link #exec(String)}.
+     */
+    public static int getCodeCacheCapacity() {
+        return withGIL(() -> evalCodeCache.getCapacity());
+    }
+
+    /**
+     * @return The number of times the compiled code was found in the cache.
+     */
+    public static long getCodeCacheHitCount() {
+        return withGIL(() -> evalCodeCache.getHitCount() + execCodeCache.getHitCount());
+    }
+
+    /**
+     * @return The number of times the code had to be compiled.
+     */
+    public static long getCodeCacheMissCount() {
+        return withGIL(() -> evalCodeCache.getMissCount() + execCodeCache.getMissCount());
+    }
+
+    /**
+     * Discard all the cached code objects.
+     */
+    public static void clearCodeCache() {
+        withGIL(() -> {
+            evalCodeCache.clear();
+            execCodeCache.clear();
+        });
+    }
+
+    /**
+     * Return {@link NpNdarrayView} instead of copying np.ndarray
+     * if the ndarray has at least this number of bytes.
+     * The ndarray must be aligned, have non-negative strides and a dtype of {@link NpDtype}.
+     * The other ndarrays are copied as before.
+     * The default is Long.MAX_VALUE, which means views are never returned.
+     * <p>
+     * A view keeps the ndarray alive until {@link NpNdarrayView#close()} is called.
+     *
+     * @param bytes The minimum number of bytes of the ndarray returned as a view.
+     */
+    public static void setNdarrayViewThreshold(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("bytes = " + bytes);
+        ndarrayViewThreshold = bytes;
+    }
+
+    /**
+     * @return The minimum number of bytes of the ndarray returned as {@link NpNdarrayView}.
+     */
+    public static long getNdarrayViewThreshold() {
+        return ndarrayViewThreshold;
+    }
+
+    /**
+     * Convert a list or tuple of only float or only int to double[] or long[],
+     * and nested rectangular lists of them to NpNdarrayDouble or NpNdarrayLong,
+     * instead of ArrayList of boxed values.
+     * bool is not treated as int. The default is false.
+     *
+     * @param enabled true to enable the conversion.
+     */
+    public static void setPrimitiveListConversion(boolean enabled) {
+        primitiveListConversion = enabled;
+    }
+
+    /**
+     * @return true if homogeneous numeric lists are converted to primitive arrays.
+     */
+    public static boolean isPrimitiveListConversion() {
+        return primitiveListConversion;
+    }
+
+    /**
+     * Fail the conversion of a value nested deeper than this, like a list referring to itself.
+     * Nested values are converted without recursion, so the depth is not limited by the Java stack.
+     * The default is 10000.
+     *
+     * @param depth The maximum nesting depth. The root value is depth 0.
+     */
+    public static void setMaxConversionDepth(int depth) {
+        if (depth < 0) throw new IllegalArgumentException("depth = " + depth);
+        maxConversionDepth = depth;
+    }
+
+    /**
+     * @return The maximum nesting depth of converted values.
+     */
+    public static int getMaxConversionDepth() {
+        return maxConversionDepth;
+    }
+
+    /**
+     * Fail the conversion of a value containing more than this number of values, including itself.
+     * The conversion stops as soon as the limit is exceeded.
+     * The default is Long.MAX_VALUE.
+     *
+     * @param values The maximum number of values in one conversion.
+     */
+    public static void setMaxConversionSize(long values) {
+        if (values < 1) throw new IllegalArgumentException("values = " + values);
+        maxConversionSize = values;
+    }
+
+    /**
+     * @return The maximum number of values in one conversion.
+     */
+    public static long getMaxConversionSize() {
+        return maxConversionSize;
+    }
+
+    /**
+     * Register the converter of user-defined Java classes and Python types.
+     * It takes precedence over the built-in conversions and the converters registered before.
+     * The converters listed in META-INF/services/org.bytedeco.embeddedpython.PyConverter are registered automatically.
+     *
+     * @param converter The converter.
+     */
+    public static void registerConverter(PyConverter converter) {
+        Objects.requireNonNull(converter);
+        updateConverterRegistry(registry -> registry.with(converter));
+    }
+
+    /**
+     * Unregister the converter registered by {@link #registerConverter(PyConverter)} or loaded by ServiceLoader.
+     * Nothing happens if it is not registered.
+     *
+     * @param converter The converter, which is compared by identity.
+     */
+    public static void unregisterConverter(PyConverter converter) {
+        Objects.requireNonNull(converter);
+        updateConverterRegistry(registry -> registry.without(converter));
+    }
+
+    private static void updateConverterRegistry(UnaryOperator<PyConverterRegistry> update) {
+        withGIL(() -> {
+            synchronized (PyConverterRegistry.class) {
+                converterRegistry = update.apply(converterRegistry());
+                // Drop the cached decisions made with the old registry.
+                toPyConverters = newToPyConverters();
+                toJavaConverters = new PyTypeMap<>(TO_JAVA_CACHE_SIZE);
+                // A weakref released before its type dies doesn't call back.
+                for (long weakref : typeWeakrefs.keySet()) {
+                    Py_DecRef(new PyObject(addressPointer(weakref)));
+                }
+                typeWeakrefs.clear();
+            }
+        });
+    }
+
+    private static PyConverterRegistry converterRegistry() {
+        PyConverterRegistry registry = converterRegistry;
+        if (registry == null) {
+            synchronized (PyConverterRegistry.class) {
+                registry = converterRegistry;
+                if (registry == null) converterRegistry = registry = PyConverterRegistry.load();
+            }
         }
+        return registry;
     }
 
     /**
@@ -167,72 +642,344 @@ public class Python {
      * @throws PythonException        If the value cannot convert to a Java object.
      * @throws NoSuchElementException If the variable does not exists.
      */
-    @SuppressWarnings("unchecked")
-    public synchronized static <T> T get(String name) {
-        TypeTreeBuilder builder = new TypeTreeBuilder(1);
-        return (T) toJava(getPyObject(name), builder);
-    }
-
-    private static PyObject getPyObject(String name) {
-        PyObject obj = PyDict_GetItemString(globals, name);
-        if (obj == null) throw new NoSuchElementException("name = " + name);
-        return obj;
+    public static <T> T get(String name) {
+        return withGIL(() -> getImpl(name, new TypeTreeBuilder(1)));
     }
 
     /**
-     * Convert the Java object and set it to the global Python variable.
+     * Get the global Python variable and convert it to the given Java class.
+     * See {@link #eval(String, Class)} for the conversion.
      *
-     * <table border="1">
-     * <caption>Type mappings. Java to Python.</caption>
-     * <thead><tr><th>Java</th><th>Python</th></tr></thead>
-     * <tbody>
-     * <tr><td>null</td><td>None</td></tr>
-     * <tr><td>boolean</td><td>bool</td></tr>
-     * <tr><td>byte</td><td>int</td></tr>
-     * <tr><td>short</td><td>int</td></tr>
-     * <tr><td>char</td><td>int</td></tr>
-     * <tr><td>int</td><td>int</td></tr>
-     * <tr><td>long</td><td>int</td></tr>
-     * <tr><td>float</td><td>float</td></tr>
-     * <tr><td>double</td><td>float</td></tr>
-     * <tr><td>Instant</td><td>np.datetime64[ns]</td></tr>
-     * <tr><td>String</td><td>str</td></tr>
-     * <tr><td>byte[]</td><td>bytes</td></tr>
-     * <tr><td>boolean[]</td><td>np.ndarray, dtype=np.bool8</td></tr>
-     * <tr><td>short[]</td><td>np.ndarray, dtype=np.int16</td></tr>
-     * <tr><td>char[]</td><td>np.ndarray, dtype=np.uint16</td></tr>
-     * <tr><td>int[]</td><td>np.ndarray, dtype=np.int32</td></tr>
-     * <tr><td>long[]</td><td>np.ndarray, dtype=np.int64</td></tr>
-     * <tr><td>float[]</td><td>np.ndarray, dtype=np.float32</td></tr>
-     * <tr><td>double[]</td><td>np.ndarray, dtype=np.float64</td></tr>
-     * <tr><td>Instant[]</td><td>np.ndarray, dtype=np.datetime64[ns]</td></tr>
-     * <tr><td>NpNdarrayBoolean</td><td>np.ndarray, dtype=np.bool8</td></tr>
-     * <tr><td>NpNdarrayByte</td><td>np.ndarray, dtype=np.int8</td></tr>
-     * <tr><td>NpNdarrayShort</td><td>np.ndarray, dtype=np.int16</td></tr>
-     * <tr><td>NpNdarrayChar</td><td>np.ndarray, dtype=np.uint16</td></tr>
-     * <tr><td>NpNdarrayInt</td><td>np.ndarray, dtype=np.int32</td></tr>
-     * <tr><td>NpNdarrayLong</td><td>np.ndarray, dtype=np.int64</td></tr>
-     * <tr><td>NpNdarrayFloat</td><td>np.ndarray, dtype=np.float32</td></tr>
-     * <tr><td>NpNdarrayDouble</td><td>np.ndarray, dtype=np.float64</td></tr>
-     * <tr><td>NpNdarrayInstant</td><td>np.ndarray, dtype=np.datetime64[ns]</td></tr>
-     * <tr><td>java.util.Map</td><td>dict</td></tr>
-     * <tr><td>scala.collection.Map</td><td>dict</td></tr>
-     * <tr><td>Object[]</td><td>list</td></tr>
-     * <tr><td>Iterable</td><td>list</td></tr>
-     * <tr><td>scala.Function0 - Function22</td><td>built-in global Python function</td></tr>
-     * </tbody>
-     * </table>
+     * <pre>{@code
+     * float[][] v = Python.get("a", float[][].class);
+     * }</pre>
      *
-     * @param name  The variable name
-     * @param value The value to put.
-     * @throws PythonException If the value cannot convert to a Python object.
+     * @param name The variable name
+     * @param type The Java class after conversion from Python. Primitive classes return the boxed values.
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     * @throws PythonException        If the value cannot convert to the Java class.
+     * @throws NoSuchElementException If the variable does not exists.
      */
-    public synchronized static void put(String name, Object value) {
-        TypeTreeBuilder builder = new TypeTreeBuilder(1);
-        putPyObject(name, toPyObject(value, builder));
+    public static <T> T get(String name, Class<T> type) {
+        return withGIL(() -> TypedConverter.toJava(lookup(globals, name), type, new TypeTreeBuilder(1)));
     }
 
-    private static void putPyObject(String name, PyObject obj) {
+    /**
+     * Get the global Python variable as a double without boxing.
+     * float, int, and numpy number scalars are accepted, but bool and np.bool_ are not, like {@link #getLong(String)}.
+     *
+     * @param name The variable name
+     * @return The value.
+     * @throws PythonException        If the value cannot convert to double.
+     * @throws NoSuchElementException If the variable does not exists.
+     */
+    public static double getDouble(String name) {
+        if (VirtualThreads.isVirtual()) return withGIL(() -> asDouble(lookup(globals, name)));
+        int gil = GIL.ensure();
+        try {
+            return asDouble(lookup(globals, name));
+        } finally {
+            GIL.release(gil);
+        }
+    }
+
+    /**
+     * Get the global Python variable as a long without boxing.
+     * int and numpy integer scalars are accepted, but bool, np.bool_, and float are not, like {@link #getDouble(String)}.
+     *
+     * @param name The variable name
+     * @return The value.
+     * @throws PythonException        If the value cannot convert to long or overflows.
+     * @throws NoSuchElementException If the variable does not exists.
+     */
+    public static long getLong(String name) {
+        if (VirtualThreads.isVirtual()) return withGIL(() -> asLong(lookup(globals, name)));
+        int gil = GIL.ensure();
+        try {
+            return asLong(lookup(globals, name));
+        } finally {
+            GIL.release(gil);
+        }
+    }
+
+    /**
+     * Get the global Python variable as a boolean without boxing.
+     * bool and np.bool_ are accepted.
+     *
+     * @param name The variable name
+     * @return The value.
+     * @throws PythonException        If the value is not a bool.
+     * @throws NoSuchElementException If the variable does not exists.
+     */
+    public static boolean getBoolean(String name) {
+        if (VirtualThreads.isVirtual()) return withGIL(() -> asBoolean(lookup(globals, name)));
+        int gil = GIL.ensure();
+        try {
+            return asBoolean(lookup(globals, name));
+        } finally {
+            GIL.release(gil);
+        }
+    }
+
+    /**
+     * Python built-in eval() returning a double without boxing. See {@link #getDouble(String)}.
+     *
+     * @param src Python code. This must be a single line code.
+     * @return The value.
+     * @throws PythonException If the value cannot convert to double.
+     */
+    public static double evalDouble(String src) {
+        if (VirtualThreads.isVirtual()) return withGIL(() -> evalDoubleImpl(src));
+        int gil = GIL.ensure();
+        try {
+            return evalDoubleImpl(src);
+        } finally {
+            GIL.release(gil);
+        }
+    }
+
+    /**
+     * Python built-in eval() returning a long without boxing. See {@link #getLong(String)}.
+     *
+     * @param src Python code. This must be a single line code.
+     * @return The value.
+     * @throws PythonException If the value cannot convert to long or overflows.
+     */
+    public static long evalLong(String src) {
+        if (VirtualThreads.isVirtual()) return withGIL(() -> evalLongImpl(src));
+        int gil = GIL.ensure();
+        try {
+            return evalLongImpl(src);
+        } finally {
+            GIL.release(gil);
+        }
+    }
+
+    /**
+     * Python built-in eval() returning a boolean without boxing. See {@link #getBoolean(String)}.
+     *
+     * @param src Python code. This must be a single line code.
+     * @return The value.
+     * @throws PythonException If the value is not a bool.
+     */
+    public static boolean evalBoolean(String src) {
+        if (VirtualThreads.isVirtual()) return withGIL(() -> evalBooleanImpl(src));
+        int gil = GIL.ensure();
+        try {
+            return evalBooleanImpl(src);
+        } finally {
+            GIL.release(gil);
+        }
+    }
+
+    private static double evalDoubleImpl(String src) {
+        PyObject obj = evalToPyObject(src);
+        try {
+            return asDouble(obj);
+        } finally {
+            Py_DecRef(obj);
+        }
+    }
+
+    private static long evalLongImpl(String src) {
+        PyObject obj = evalToPyObject(src);
+        try {
+            return asLong(obj);
+        } finally {
+            Py_DecRef(obj);
+        }
+    }
+
+    private static boolean evalBooleanImpl(String src) {
+        PyObject obj = evalToPyObject(src);
+        try {
+            return asBoolean(obj);
+        } finally {
+            Py_DecRef(obj);
+        }
+    }
+
+    /**
+     * The caller must hold the GIL. Don't forget to call Py_DecRef().
+     */
+    private static PyObject evalToPyObject(String src) {
+        PyObject co = compile(src, Py_eval_input);
+        try {
+            return evalCode(co, globals, globals, src);
+        } finally {
+            Py_DecRef(co);
+        }
+    }
+
+    /**
+     * The caller must hold the GIL. The values are accepted like {@link #get(String, Class)}.
+     * The type tree is built only when the conversion fails.
+     */
+    private static double asDouble(PyObject obj) {
+        return TypedConverter.readDouble(obj, double.class, null);
+    }
+
+    private static long asLong(PyObject obj) {
+        return TypedConverter.readLong(obj, long.class, null);
+    }
+
+    private static boolean asBoolean(PyObject obj) {
+        long address = obj.address();
+        if (address == trueAddress || address == npTrueAddress) return true;
+        if (address == falseAddress || address == npFalseAddress) return false;
+        throw TypedConverter.cannotConvert(obj, boolean.class, new TypeTreeBuilder(1));
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    static <T> T getImpl(String name, TypeTreeBuilder builder) {
+        return getImpl(globals, name, builder);
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T getImpl(PyObject globals, String name, TypeTreeBuilder builder) {
+        return (T) toJava(lookup(globals, name), builder);
+    }
+
+    /**
+     * The caller must hold the GIL.
+     *
+     * @return The borrowed reference.
+     */
+    private static PyObject lookup(PyObject globals, String name) {
+        PyObject key = internedKey(name);
+        PyObject obj = key != null ? PyDict_GetItem(globals, key) : PyDict_GetItemString(globals, name);
+        if (obj == null) throw new NoSuchElementException("name = " + name);
+        return obj;
+    }
+
+    static PyObject getPyObject(PyObject globals, String name) {
+        PyObject obj = PyDict_GetItemString(globals, name);
+        if (obj == null) throw new NoSuchElementException("name = " + name);
+        return obj;
+    }
+
+    /**
+     * Convert the Java object and set it to the global Python variable.
+     *
+     * <table border="1">
+     * <caption>Type mappings. Java to Python.</caption>
+     * <thead><tr><th>Java</th><th>Python</th></tr></thead>
+     * <tbody>
+     * <tr><td>null</td><td>None</td></tr>
+     * <tr><td>boolean</td><td>bool</td></tr>
+     * <tr><td>byte</td><td>int</td></tr>
+     * <tr><td>short</td><td>int</td></tr>
+     * <tr><td>char</td><td>int</td></tr>
+     * <tr><td>int</td><td>int</td></tr>
+     * <tr><td>long</td><td>int</td></tr>
+     * <tr><td>float</td><td>float</td></tr>
+     * <tr><td>double</td><td>float</td></tr>
+     * <tr><td>Instant</td><td>np.datetime64[ns]</td></tr>
+     * <tr><td>String</td><td>str</td></tr>
+     * <tr><td>byte[]</td><td>bytes</td></tr>
+     * <tr><td>boolean[]</td><td>np.ndarray, dtype=np.bool8</td></tr>
+     * <tr><td>short[]</td><td>np.ndarray, dtype=np.int16</td></tr>
+     * <tr><td>char[]</td><td>np.ndarray, dtype=np.uint16</td></tr>
+     * <tr><td>int[]</td><td>np.ndarray, dtype=np.int32</td></tr>
+     * <tr><td>long[]</td><td>np.ndarray, dtype=np.int64</td></tr>
+     * <tr><td>float[]</td><td>np.ndarray, dtype=np.float32</td></tr>
+     * <tr><td>double[]</td><td>np.ndarray, dtype=np.float64</td></tr>
+     * <tr><td>Instant[]</td><td>np.ndarray, dtype=np.datetime64[ns]</td></tr>
+     * <tr><td>NpNdarrayBoolean</td><td>np.ndarray, dtype=np.bool8</td></tr>
+     * <tr><td>NpNdarrayByte</td><td>np.ndarray, dtype=np.int8</td></tr>
+     * <tr><td>NpNdarrayShort</td><td>np.ndarray, dtype=np.int16</td></tr>
+     * <tr><td>NpNdarrayChar</td><td>np.ndarray, dtype=np.uint16</td></tr>
+     * <tr><td>NpNdarrayInt</td><td>np.ndarray, dtype=np.int32</td></tr>
+     * <tr><td>NpNdarrayLong</td><td>np.ndarray, dtype=np.int64</td></tr>
+     * <tr><td>NpNdarrayFloat</td><td>np.ndarray, dtype=np.float32</td></tr>
+     * <tr><td>NpNdarrayDouble</td><td>np.ndarray, dtype=np.float64</td></tr>
+     * <tr><td>NpNdarrayInstant</td><td>np.ndarray, dtype=np.datetime64[ns]</td></tr>
+     * <tr><td>java.util.Map</td><td>dict</td></tr>
+     * <tr><td>scala.collection.Map</td><td>dict</td></tr>
+     * <tr><td>Object[]</td><td>list</td></tr>
+     * <tr><td>Iterable</td><td>list</td></tr>
+     * <tr><td>scala.Function0 - Function22</td><td>built-in global Python function</td></tr>
+     * <tr><td>PyRef</td><td>the referenced object</td></tr>
+     * </tbody>
+     * </table>
+     *
+     * @param name  The variable name
+     * @param value The value to put.
+     * @throws PythonException If the value cannot convert to a Python object.
+     */
+    public static void put(String name, Object value) {
+        withGIL(() -> putImpl(name, value, new TypeTreeBuilder(1)));
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    static void putImpl(String name, Object value, TypeTreeBuilder builder) {
+        putImpl(globals, name, value, builder);
+    }
+
+    /**
+     * The caller must hold the GIL.
+     * The values are converted to one dict in a single conversion and merged into the globals at once.
+     */
+    static void putAllImpl(Map<String, ?> values, TypeTreeBuilder builder) {
+        PyObject dict = toPyObject(values, builder);
+        try {
+            if (PyDict_Update(globals, dict) != 0) {
+                throw new PythonException("PyDict_Update() failed");
+            }
+        } finally {
+            Py_DecRef(dict);
+        }
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    static void putImpl(PyObject globals, String name, Object value, TypeTreeBuilder builder) {
+        PyObject key = internedKey(name);
+        if (key == null) {
+            putPyObject(globals, name, toPyObject(value, builder));
+            return;
+        }
+        PyObject obj = toPyObject(value, builder);
+        try {
+            if (PyDict_SetItem(globals, key, obj) != 0) {
+                throw new PythonException("PyDict_SetItem() failed");
+            }
+        } finally {
+            Py_DecRef(obj);
+        }
+    }
+
+    /**
+     * The interned str objects of the variable names of the main interpreter.
+     * The hash of an interned str is computed only once, and no str object is created on each access.
+     */
+    private static final HashMap<String, PyObject> internedKeys = new HashMap<>();
+    private static final int maxInternedKeys = 4096;
+
+    /**
+     * The caller must hold the GIL.
+     *
+     * @return The borrowed reference, or null if too many names are cached.
+     */
+    private static PyObject internedKey(String name) {
+        PyObject key = internedKeys.get(name);
+        if (key == null && internedKeys.size() < maxInternedKeys) {
+            key = PyUnicode_InternFromString(name);
+            internedKeys.put(name, key);
+        }
+        return key;
+    }
+
+    static void putPyObject(PyObject globals, String name, PyObject obj) {
         try {
             if (PyDict_SetItemString(globals, name, obj) != 0) {
                 throw new PythonException("PyDict_SetItemString() failed");
@@ -242,298 +989,1021 @@ public class Python {
         }
     }
 
-    private static Object toJava(PyObject obj, TypeTreeBuilder builder) {
-        PyObject iterator;
+    /**
+     * Call the Python function without compiling any Python code.
+     * <p>
+     * The name is resolved in this order.
+     * The first component is a global variable, a built-in, or a module to import.
+     * The following components are attributes or submodules.
+     * For example, {@code "len"}, {@code "f"}, {@code "np.linalg.norm"}, or {@code "os.path.join"}.
+     *
+     * @param name The dotted name of the callable.
+     * @param args The arguments. They are converted like {@link #put(String, Object)}.
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the return value.
+     * @throws PythonException        If the callable throws an error or the values cannot be converted.
+     * @throws NoSuchElementException If the name cannot be resolved.
+     */
+    public static <T> T call(String name, Object... args) {
+        return withGIL(() -> callImpl(name, args));
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    static <T> T callImpl(String name, Object[] args) {
+        return callImpl(globals, name, args);
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    static <T> T callImpl(PyObject globals, String name, Object[] args) {
+        PyObject callable = resolve(globals, name);
+        try {
+            return toJavaAndDecRef(vectorcall(callable, args, name));
+        } finally {
+            Py_DecRef(callable);
+        }
+    }
+
+    /**
+     * Call the method of the Python object without compiling any Python code.
+     *
+     * @param objName    The dotted name of the object. It is resolved like {@link #call(String, Object...)}.
+     * @param methodName The method name.
+     * @param args       The arguments. They are converted like {@link #put(String, Object)}.
+     * @param <T>        The Java class after conversion from Python.
+     * @return The Java object converted from the return value.
+     * @throws PythonException        If the method throws an error or the values cannot be converted.
+     * @throws NoSuchElementException If the object name cannot be resolved.
+     */
+    public static <T> T callMethod(String objName, String methodName, Object... args) {
+        return withGIL(() -> {
+            PyObject obj = resolve(globals, objName);
+            try {
+                return toJavaAndDecRef(vectorcallMethod(obj, methodName, args));
+            } finally {
+                Py_DecRef(obj);
+            }
+        });
+    }
+
+    /**
+     * Call the method of the Python object referenced by the PyRef.
+     *
+     * @param ref        The reference to the Python object.
+     * @param methodName The method name.
+     * @param args       The arguments. They are converted like {@link #put(String, Object)}.
+     * @param <T>        The Java class after conversion from Python.
+     * @return The Java object converted from the return value.
+     * @throws PythonException If the method throws an error or the values cannot be converted.
+     */
+    public static <T> T callMethod(PyRef ref, String methodName, Object... args) {
+        return withGIL(() -> toJavaAndDecRef(vectorcallMethod(ref.pyObject(), methodName, args)));
+    }
+
+    /**
+     * Python built-in eval() without converting the value to a Java object.
+     *
+     * @param src Python code. This must be a single line code.
+     * @return The reference to the value.
+     */
+    public static PyRef evalRef(String src) {
+        return withGIL(() -> {
+            PyObject co = compile(src, Py_eval_input);
+            try {
+                return new PyRef(evalCode(co, globals, globals, src));
+            } finally {
+                Py_DecRef(co);
+            }
+        });
+    }
+
+    /**
+     * Get the global Python variable without converting it to a Java object.
+     *
+     * @param name The variable name
+     * @return The reference to the value.
+     * @throws NoSuchElementException If the variable does not exists.
+     */
+    public static PyRef getRef(String name) {
+        return withGIL(() -> {
+            PyObject obj = getPyObject(globals, name);
+            Py_IncRef(obj);
+            return new PyRef(obj);
+        });
+    }
+
+    /**
+     * Call the Python function without converting the return value to a Java object.
+     *
+     * @param name The dotted name of the callable. It is resolved like {@link #call(String, Object...)}.
+     * @param args The arguments. They are converted like {@link #put(String, Object)}.
+     * @return The reference to the return value.
+     * @throws PythonException        If the callable throws an error or the arguments cannot be converted.
+     * @throws NoSuchElementException If the name cannot be resolved.
+     */
+    public static PyRef callRef(String name, Object... args) {
+        return withGIL(() -> {
+            PyObject callable = resolve(globals, name);
+            try {
+                return new PyRef(vectorcall(callable, args, name));
+            } finally {
+                Py_DecRef(callable);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T toJava(PyRef ref) {
+        return withGIL(() -> {
+            TypeTreeBuilder builder = new TypeTreeBuilder(1);
+            return (T) toJava(ref.pyObject(), builder);
+        });
+    }
+
+    static PyRef getAttr(PyRef ref, String name) {
+        return withGIL(() -> {
+            PyObject obj = PyObject_GetAttrString(ref.pyObject(), name);
+            if (obj == null) {
+                PyErr_Print();
+                throw new PythonException("PyObject_GetAttrString() failed. name = " + name);
+            }
+            return new PyRef(obj);
+        });
+    }
+
+    static PyRef getItem(PyRef ref, Object key) {
+        return withGIL(() -> {
+            TypeTreeBuilder builder = new TypeTreeBuilder(1);
+            PyObject keyObj = toPyObject(key, builder);
+            try {
+                PyObject obj = PyObject_GetItem(ref.pyObject(), keyObj);
+                if (obj == null) {
+                    PyErr_Print();
+                    throw new PythonException("PyObject_GetItem() failed. key = " + key);
+                }
+                return new PyRef(obj);
+            } finally {
+                Py_DecRef(keyObj);
+            }
+        });
+    }
+
+    static <T> T call(PyRef ref, Object[] args) {
+        return withGIL(() -> toJavaAndDecRef(vectorcall(ref.pyObject(), args, "(PyRef)")));
+    }
+
+    static PyRef callRef(PyRef ref, Object[] args) {
+        return withGIL(() -> new PyRef(vectorcall(ref.pyObject(), args, "(PyRef)")));
+    }
+
+    static PyRef callMethodRef(PyRef ref, String methodName, Object[] args) {
+        return withGIL(() -> new PyRef(vectorcallMethod(ref.pyObject(), methodName, args)));
+    }
+
+    static void close(PyRef ref) {
+        withGIL(() -> ref.release());
+    }
+
+    static String str(PyRef ref) {
+        return withGIL(() -> {
+            if (ref.isClosed()) return "PyRef(closed)";
+            PyObject strObj = PyObject_Str(ref.pyObject());
+            if (strObj == null) {
+                PyErr_Clear();
+                return "PyRef(?)";
+            }
+            try {
+                return new BytePointer(PyUnicode_AsUTF8(strObj)).getString(UTF_8);
+            } finally {
+                Py_DecRef(strObj);
+            }
+        });
+    }
+
+    /**
+     * Don't forget to call Py_DecRef().
+     */
+    static PyObject resolve(PyObject globals, String name) {
+        String[] names = name.split("\\.");
+        PyObject obj = PyDict_GetItemString(globals, names[0]);
+        if (obj == null) obj = PyDict_GetItemString(PyEval_GetBuiltins(), names[0]);
+        if (obj != null) {
+            Py_IncRef(obj);
+        } else {
+            obj = importModule(names[0], name);
+        }
+
+        for (int i = 1; i < names.length; i++) {
+            PyObject attr = PyObject_GetAttrString(obj, names[i]);
+            if (attr == null) {
+                PyErr_Clear();
+                if (PyModule_Check(obj)) {
+                    attr = importModule(String.join(".", Arrays.copyOfRange(names, 0, i + 1)), name);
+                }
+            }
+            Py_DecRef(obj);
+            if (attr == null) throw new NoSuchElementException("name = " + name);
+            obj = attr;
+        }
+        return obj;
+    }
+
+    /**
+     * Don't forget to call Py_DecRef().
+     */
+    private static PyObject importModule(String moduleName, String name) {
+        PyObject module = PyImport_ImportModule(moduleName);
+        if (module == null) {
+            if (PyErr_ExceptionMatches(PyExc_ModuleNotFoundError()) != 0) {
+                PyErr_Clear();
+                throw new NoSuchElementException("name = " + name);
+            }
+            PyErr_Print();
+            throw new PythonException("PyImport_ImportModule() failed. An Error is thrown inside Python. name = " + name);
+        }
+        return module;
+    }
+
+    /**
+     * Don't forget to call Py_DecRef().
+     */
+    static PyObject vectorcall(PyObject callable, Object[] args, String name) {
+        PointerPointer<PyObject> argsPtr = toPyObjectArgs(args, 0);
+        try {
+            PyObject obj = PyObject_Vectorcall(callable, argsPtr, args.length, null);
+            if (obj == null) {
+                PyErr_Print();
+                throw new PythonException("PyObject_Vectorcall() failed. An Error is thrown inside Python. name = " + name);
+            }
+            return obj;
+        } finally {
+            decRefArgs(argsPtr, 0, args.length);
+        }
+    }
+
+    /**
+     * Don't forget to call Py_DecRef().
+     */
+    static PyObject vectorcallMethod(PyObject self, String methodName, Object[] args) {
+        PointerPointer<PyObject> argsPtr = toPyObjectArgs(args, 1);
+        argsPtr.put(0, self);
+        PyObject nameObj = PyUnicode_InternFromString(methodName);
+        try {
+            PyObject obj = PyObject_VectorcallMethod(nameObj, argsPtr, args.length + 1, null);
+            if (obj == null) {
+                PyErr_Print();
+                throw new PythonException("PyObject_VectorcallMethod() failed. An Error is thrown inside Python. methodName = " + methodName);
+            }
+            return obj;
+        } finally {
+            Py_DecRef(nameObj);
+            decRefArgs(argsPtr, 1, args.length + 1);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T toJavaAndDecRef(PyObject obj) {
+        try {
+            TypeTreeBuilder builder = new TypeTreeBuilder(1);
+            return (T) toJava(obj, builder);
+        } finally {
+            Py_DecRef(obj);
+        }
+    }
+
+    /**
+     * Don't forget to call decRefArgs().
+     */
+    private static PointerPointer<PyObject> toPyObjectArgs(Object[] args, int offset) {
+        PointerPointer<PyObject> argsPtr = new PointerPointer<>(offset + args.length);
+        for (int i = 0; i < args.length; i++) {
+            TypeTreeBuilder builder = new TypeTreeBuilder(1);
+            builder.addType("(argument " + i + ")");
+            builder.tab++;
+            try {
+                argsPtr.put(offset + i, toPyObject(args[i], builder));
+            } catch (RuntimeException e) {
+                decRefArgs(argsPtr, offset, offset + i);
+                throw e;
+            }
+        }
+        return argsPtr;
+    }
+
+    private static void decRefArgs(PointerPointer<PyObject> argsPtr, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Py_DecRef(argsPtr.get(PyObject.class, i));
+        }
+    }
+
+    static Object toJava(PyObject obj, TypeTreeBuilder builder) {
+        builder.nesting++;
+        try {
+            Object value = convertToJava(obj, builder);
+            return value instanceof ToJavaFrame ? toJavaIterative((ToJavaFrame) value, builder) : value;
+        } finally {
+            if (--builder.nesting == 0) releaseSharedObjects(builder);
+        }
+    }
+
+    private static Object toJavaIterative(ToJavaFrame root, TypeTreeBuilder builder) {
+        int rootTab = builder.tab;
+        ArrayList<ToJavaFrame> stack = new ArrayList<>();
+        stack.add(root);
+        try {
+            while (true) {
+                ToJavaFrame top = stack.get(stack.size() - 1);
+                PyObject child = top.next(builder);
+                if (child != null) {
+                    Object value = convertToJava(child, builder);
+                    if (value instanceof ToJavaFrame) {
+                        stack.add((ToJavaFrame) value);
+                    } else {
+                        top.add(value);
+                    }
+                } else {
+                    stack.remove(stack.size() - 1);
+                    top.close();
+                    if (stack.isEmpty()) return top.result();
+                    stack.get(stack.size() - 1).add(top.result());
+                }
+            }
+        } finally {
+            for (ToJavaFrame frame : stack) {
+                frame.close();
+            }
+            builder.tab = rootTab;
+        }
+    }
+
+    /**
+     * @return The Java object, or {@link ToJavaFrame} to convert the elements of the container.
+     */
+    private static Object convertToJava(PyObject obj, TypeTreeBuilder builder) {
+        checkConversionLimits(builder);
         PyTypeObject t = PyTypes.Py_TYPE(obj);
-        if (PyNone_Check(obj)) {
-            builder.addType("None");
-            return null;
-        } else if (PyBool_Check(obj)) {
-            builder.addType("bool");
-            return PyLong_AsLong(obj) != 0;
-        } else if (PyLong_Check(obj)) {
-            builder.addType("int");
-            return PyLong_AsLong(obj);
-        } else if (PyFloat_Check(obj)) {
-            builder.addType("float");
-            return PyFloat_AsDouble(obj);
-        } else if (PyUnicode_Check(obj)) {
-            builder.addType("str");
-            return new BytePointer(PyUnicode_AsUTF8(obj)).getString(UTF_8);
+        PyTypeMap<ToJavaConverter> converters = toJavaConverters;
+        ToJavaConverter converter = converters.get(t.address());
+        if (converter == null) {
+            converter = findToJavaConverter(t);
+            cacheToJavaConverter(converters, t, converter);
+        }
+        return converter.convert(obj, builder);
+    }
+
+    @FunctionalInterface
+    private interface ToJavaConverter {
+        Object convert(PyObject obj, TypeTreeBuilder builder);
+    }
+
+    /**
+     * The converter of each Python type, keyed by the address of PyTypeObject,
+     * so each value costs one lookup instead of a chain of type checks.
+     */
+    private static final int TO_JAVA_CACHE_SIZE = 4096;
+    private static volatile PyTypeMap<ToJavaConverter> toJavaConverters = new PyTypeMap<>(TO_JAVA_CACHE_SIZE);
+
+    // The weakrefs to the heap types in toJavaConverters, from the address of the weakref to that of the type.
+    // Guarded by the GIL.
+    private static final HashMap<Long, Long> typeWeakrefs = new HashMap<>();
+    private static final BytePointer TYPE_FREED_NAME = new BytePointer("org.bytedeco.embeddedpython.type_freed");
+    private static final PyCFunction typeFreedFunction = new PyCFunction() {
+        @Override
+        public PyObject call(PyObject self, PyObject weakref) {
+            Long address = typeWeakrefs.remove(weakref.address());
+            if (address != null) {
+                toJavaConverters.remove(address);
+                Py_DecRef(weakref);
+            }
+            PyObject none = _Py_NoneStruct();
+            Py_IncRef(none);
+            return none;
+        }
+    };
+    private static final PyMethodDef typeFreedMethodDef = new PyMethodDef().
+            ml_name(TYPE_FREED_NAME).
+            ml_meth(typeFreedFunction).
+            ml_flags(METH_O);
+    // Created on the first heap type. Guarded by the GIL.
+    private static PyObject typeFreedCallback;
+
+    /**
+     * Heap types, like Python classes, can be freed and another type can be allocated at the same address.
+     * A cached heap type is evicted by the callback of a weakref when it is freed.
+     * Heap types of sub-interpreters are not cached because the callback belongs to the main interpreter.
+     */
+    private static void cacheToJavaConverter(PyTypeMap<ToJavaConverter> converters, PyTypeObject t,
+                                             ToJavaConverter converter) {
+        if (!PyTypes.PyType_HasFeature(t, Py_TPFLAGS_HEAPTYPE)) {
+            converters.put(t.address(), converter);
+        } else if (PyInterpreterState_Get().address() == mainInterpreter.address() &&
+                converters == toJavaConverters && converters.get(t.address()) == null) {
+            if (typeFreedCallback == null) typeFreedCallback = PyCFunction_NewEx(typeFreedMethodDef, null, null);
+            PyObject weakref = PyWeakref_NewRef(new PyObject(t), typeFreedCallback);
+            if (weakref == null) {
+                PyErr_Clear();
+                return;
+            }
+            if (converters.put(t.address(), converter)) {
+                typeWeakrefs.put(weakref.address(), t.address());
+            } else {
+                Py_DecRef(weakref);
+            }
+        }
+    }
+
+    /**
+     * The registered converters come first. Then the first matching type in this order wins.
+     */
+    private static ToJavaConverter findToJavaConverter(PyTypeObject t) {
+        PyConverter userConverter = converterRegistry().findForType(t);
+        if (userConverter != null) {
+            String name = new BytePointer(t.tp_name()).getString(UTF_8);
+            return (obj, builder) -> {
+                builder.addType(name);
+                return userConverter.toJava(obj, new ConverterContext(builder));
+            };
+        } else if (t.equals(noneType)) {
+            return (obj, builder) -> {
+                builder.addType("None");
+                return null;
+            };
+        } else if (t.equals(boolType)) {
+            return (obj, builder) -> {
+                builder.addType("bool");
+                return PyLong_AsLong(obj) != 0;
+            };
+        } else if (PyTypes.PyType_FastSubclass(t, Py_TPFLAGS_LONG_SUBCLASS)) {
+            return (obj, builder) -> {
+                builder.addType("int");
+                return PyLong_AsLong(obj);
+            };
+        } else if (PyType_IsSubtypeOf(t, floatType)) {
+            return (obj, builder) -> {
+                builder.addType("float");
+                return PyFloat_AsDouble(obj);
+            };
+        } else if (PyTypes.PyType_FastSubclass(t, Py_TPFLAGS_UNICODE_SUBCLASS)) {
+            return (obj, builder) -> {
+                builder.addType("str");
+                return PyStrings.toJavaString(obj);
+            };
         } else if (t.equals(boolArrType)) {
-            builder.addType("np.bool8");
-            return new PyBoolScalarObject(obj).obval() != 0;
+            return (obj, builder) -> {
+                builder.addType("np.bool8");
+                return new PyBoolScalarObject(obj).obval() != 0;
+            };
         } else if (t.equals(byteArrType)) {
-            builder.addType("np.int8");
-            return new PyByteScalarObject(obj).obval();
+            return (obj, builder) -> {
+                builder.addType("np.int8");
+                return new PyByteScalarObject(obj).obval();
+            };
         } else if (t.equals(ushortArrType)) {
-            builder.addType("np.uint8");
-            return (char) (new PyUShortScalarObject(obj).obval());
+            return (obj, builder) -> {
+                builder.addType("np.uint8");
+                return (char) (new PyUShortScalarObject(obj).obval());
+            };
         } else if (t.equals(shortArrType)) {
-            builder.addType("np.int16");
-            return new PyShortScalarObject(obj).obval();
+            return (obj, builder) -> {
+                builder.addType("np.int16");
+                return new PyShortScalarObject(obj).obval();
+            };
         } else if (t.equals(intArrType)) {
-            builder.addType("np.int32");
-            return new PyIntScalarObject(obj).obval();
+            return (obj, builder) -> {
+                builder.addType("np.int32");
+                return new PyIntScalarObject(obj).obval();
+            };
         } else if (t.equals(longArrType)) {
-            builder.addType("np.int64");
-            return new PyLongScalarObject(obj).obval();
+            return (obj, builder) -> {
+                builder.addType("np.int64");
+                return new PyLongScalarObject(obj).obval();
+            };
         } else if (t.equals(floatArrType)) {
-            builder.addType("np.float32");
-            return new PyFloatScalarObject(obj).obval();
+            return (obj, builder) -> {
+                builder.addType("np.float32");
+                return new PyFloatScalarObject(obj).obval();
+            };
         } else if (t.equals(doubleArrType)) {
-            builder.addType("np.float64");
-            return new PyDoubleScalarObject(obj).obval();
+            return (obj, builder) -> {
+                builder.addType("np.float64");
+                return new PyDoubleScalarObject(obj).obval();
+            };
         } else if (t.equals(datetimeArrType)) {
-            PyDatetimeScalarObject datetimeScalarObj = new PyDatetimeScalarObject(obj);
-            int datetimteUnit = datetimeScalarObj.obmeta().base();
-            switch (datetimteUnit) {
-                case NPY_FR_W:
-                    builder.addType("np.datetime64[W]");
-                    return Instant.ofEpochSecond(datetimeScalarObj.obval() * (7L * 24L * 60L * 60L));
-                case NPY_FR_D:
-                    builder.addType("np.datetime64[D]");
-                    return Instant.ofEpochSecond(datetimeScalarObj.obval() * (24L * 60L * 60L));
-                case NPY_FR_h:
-                    builder.addType("np.datetime64[h]");
-                    return Instant.ofEpochSecond(datetimeScalarObj.obval() * (60L * 60L));
-                case NPY_FR_m:
-                    builder.addType("np.datetime64[m]");
-                    return Instant.ofEpochSecond(datetimeScalarObj.obval() * 60L);
-                case NPY_FR_s:
-                    builder.addType("np.datetime64[s]");
-                    return Instant.ofEpochSecond(datetimeScalarObj.obval());
-                case NPY_FR_ms:
-                    builder.addType("np.datetime64[ms]");
-                    return Instant.ofEpochMilli(datetimeScalarObj.obval());
-                case NPY_FR_us:
-                    builder.addType("np.datetime64[us]");
-                    return Instant.ofEpochSecond(
-                            datetimeScalarObj.obval() / 1000_000L,
-                            datetimeScalarObj.obval() % 1000_000L);
-                case NPY_FR_ns:
-                    builder.addType("np.datetime64[ns]");
-                    return Instant.ofEpochSecond(
-                            datetimeScalarObj.obval() / 1000_000_000L,
-                            datetimeScalarObj.obval() % 1000_000_000L);
-                default:
-                    builder.addType("np.datetime64[???]  <- Unsupported datetime unit " + datetimteUnit);
-                    throw new PythonException("Cannot convert the Python object to a Java object.\n" +
-                            "\nValue type tree\n" + builder.toString());
+            return (obj, builder) -> {
+                PyDatetimeScalarObject datetimeScalarObj = new PyDatetimeScalarObject(obj);
+                int datetimteUnit = datetimeScalarObj.obmeta().base();
+                switch (datetimteUnit) {
+                    case NPY_FR_W:
+                        builder.addType("np.datetime64[W]");
+                        return Instant.ofEpochSecond(datetimeScalarObj.obval() * (7L * 24L * 60L * 60L));
+                    case NPY_FR_D:
+                        builder.addType("np.datetime64[D]");
+                        return Instant.ofEpochSecond(datetimeScalarObj.obval() * (24L * 60L * 60L));
+                    case NPY_FR_h:
+                        builder.addType("np.datetime64[h]");
+                        return Instant.ofEpochSecond(datetimeScalarObj.obval() * (60L * 60L));
+                    case NPY_FR_m:
+                        builder.addType("np.datetime64[m]");
+                        return Instant.ofEpochSecond(datetimeScalarObj.obval() * 60L);
+                    case NPY_FR_s:
+                        builder.addType("np.datetime64[s]");
+                        return Instant.ofEpochSecond(datetimeScalarObj.obval());
+                    case NPY_FR_ms:
+                        builder.addType("np.datetime64[ms]");
+                        return Instant.ofEpochMilli(datetimeScalarObj.obval());
+                    case NPY_FR_us:
+                        builder.addType("np.datetime64[us]");
+                        return Instant.ofEpochSecond(
+                                datetimeScalarObj.obval() / 1000_000L,
+                                datetimeScalarObj.obval() % 1000_000L);
+                    case NPY_FR_ns:
+                        builder.addType("np.datetime64[ns]");
+                        return Instant.ofEpochSecond(
+                                datetimeScalarObj.obval() / 1000_000_000L,
+                                datetimeScalarObj.obval() % 1000_000_000L);
+                    default:
+                        builder.addType("np.datetime64[???]  <- Unsupported datetime unit " + datetimteUnit);
+                        throw new PythonException("Cannot convert the Python object to a Java object.\n" +
+                                "\nValue type tree\n" + builder.toString());
+                }
+            };
+        } else if (PyTypes.PyType_FastSubclass(t, Py_TPFLAGS_BYTES_SUBCLASS)) {
+            return (obj, builder) -> {
+                builder.addType("bytes");
+                byte[] ary = new byte[lengthToInt(PyBytes_Size(obj))];
+                new BytePointer(PyBytes_AsString(obj)).get(ary);
+                return ary;
+            };
+        } else if (PyType_IsSubtypeOf(t, byteArrayType)) {
+            return (obj, builder) -> {
+                builder.addType("bytearray");
+                byte[] ary = new byte[lengthToInt(PyByteArray_Size(obj))];
+                new BytePointer(PyByteArray_AsString(obj)).get(ary);
+                return ary;
+            };
+        } else if (PyTypes.PyType_FastSubclass(t, Py_TPFLAGS_DICT_SUBCLASS)) {
+            return (obj, builder) -> {
+                Object shared = sharedJavaObject(obj, builder);
+                if (shared != null) {
+                    builder.addType("dict (shared)");
+                    return shared;
+                }
+                builder.addType("dict");
+                DictFrame frame = new DictFrame(obj, builder.tab + 1);
+                shareJavaObject(obj, frame.result(), builder);
+                return frame;
+            };
+        } else if (t.equals(arrayType)) {
+            return (obj, builder) -> {
+                PyArrayObject aryObj = new PyArrayObject(obj);
+                int ndim = PyArray_NDIM(aryObj);
+
+                SizeTPointer shapePtr = PyArray_DIMS(aryObj);
+                long[] shape = new long[ndim];
+                shapePtr.get(shape);
+
+                SizeTPointer stridesPtr = PyArray_STRIDES(aryObj);
+                long[] strides = new long[ndim];
+                stridesPtr.get(strides);
+
+                NpNdarrayView view = toNdarrayView(obj, aryObj, shape, strides, builder);
+                if (view != null) return view;
+
+                int itemsize = (int) PyArray_ITEMSIZE(aryObj);
+
+                switch ((int) aryObj.descr().type()) {
+                    case NPY_BOOLLTR: {
+                        builder.addType("np.ndarray(dtype=np.bool8)");
+                        boolean[] data = new boolean[lengthToInt(PyArray_Size(aryObj))];
+                        int[] javaStrides = copyElements(aryObj, shape, strides, itemsize, p -> {
+                            BooleanPointer src = new BooleanPointer(p);
+                            return (srcIndex, dstIndex, length) -> src.position(srcIndex).get(data, dstIndex, length);
+                        });
+                        return new NpNdarrayBoolean(data, toIntArray(shape), javaStrides);
+                    }
+                    case NPY_BYTELTR: {
+                        builder.addType("np.ndarray(dtype=np.int8)");
+                        byte[] data = new byte[lengthToInt(PyArray_Size(aryObj))];
+                        int[] javaStrides = copyElements(aryObj, shape, strides, itemsize, p -> {
+                            BytePointer src = new BytePointer(p);
+                            return (srcIndex, dstIndex, length) -> src.position(srcIndex).get(data, dstIndex, length);
+                        });
+                        return new NpNdarrayByte(data, toIntArray(shape), javaStrides);
+                    }
+                    case NPY_USHORTLTR: {
+                        builder.addType("np.ndarray(dtype=np.uint16)");
+                        char[] data = new char[lengthToInt(PyArray_Size(aryObj))];
+                        int[] javaStrides = copyElements(aryObj, shape, strides, itemsize, p -> {
+                            CharPointer src = new CharPointer(p);
+                            return (srcIndex, dstIndex, length) -> src.position(srcIndex).get(data, dstIndex, length);
+                        });
+                        return new NpNdarrayChar(data, toIntArray(shape), javaStrides);
+                    }
+                    case NPY_SHORTLTR: {
+                        builder.addType("np.ndarray(dtype=np.int16)");
+                        short[] data = new short[lengthToInt(PyArray_Size(aryObj))];
+                        int[] javaStrides = copyElements(aryObj, shape, strides, itemsize, p -> {
+                            ShortPointer src = new ShortPointer(p);
+                            return (srcIndex, dstIndex, length) -> src.position(srcIndex).get(data, dstIndex, length);
+                        });
+                        return new NpNdarrayShort(data, toIntArray(shape), javaStrides);
+                    }
+                    case NPY_INTLTR: {
+                        builder.addType("np.ndarray(dtype=np.int32)");
+                        int[] data = new int[lengthToInt(PyArray_Size(aryObj))];
+                        int[] javaStrides = copyElements(aryObj, shape, strides, itemsize, p -> {
+                            IntPointer src = new IntPointer(p);
+                            return (srcIndex, dstIndex, length) -> src.position(srcIndex).get(data, dstIndex, length);
+                        });
+                        return new NpNdarrayInt(data, toIntArray(shape), javaStrides);
+                    }
+                    case NPY_LONGLTR: {
+                        if (itemsize == 4) {
+                            builder.addType("np.ndarray(dtype=np.int32)");
+                            int[] data = new int[lengthToInt(PyArray_Size(aryObj))];
+                            int[] javaStrides = copyElements(aryObj, shape, strides, itemsize, p -> {
+                                IntPointer src = new IntPointer(p);
+                                return (srcIndex, dstIndex, length) -> src.position(srcIndex).get(data, dstIndex, length);
+                            });
+                            return new NpNdarrayInt(data, toIntArray(shape), javaStrides);
+                        } else if (itemsize == 8) {
+                            builder.addType("np.ndarray(dtype=np.int64)");
+                            long[] data = new long[lengthToInt(PyArray_Size(aryObj))];
+                            int[] javaStrides = copyElements(aryObj, shape, strides, itemsize, p -> {
+                                LongPointer src = new LongPointer(p);
+                                return (srcIndex, dstIndex, length) -> src.position(srcIndex).get(data, dstIndex, length);
+                            });
+                            return new NpNdarrayLong(data, toIntArray(shape), javaStrides);
+                        } else {
+                            builder.addType("np.ndarray(dtype=???)  <- Unsupported itemsize " + itemsize);
+                            throw new PythonException("Cannot convert the Python object to a Java object.\n" +
+                                    "\nValue type tree\n" + builder.toString());
+                        }
+                    }
+                    case NPY_LONGLONGLTR: {
+                        builder.addType("np.ndarray(dtype=np.int64)");
+                        long[] data = new long[lengthToInt(PyArray_Size(aryObj))];
+                        int[] javaStrides = copyElements(aryObj, shape, strides, itemsize, p -> {
+                            LongPointer src = new LongPointer(p);
+                            return (srcIndex, dstIndex, length) -> src.position(srcIndex).get(data, dstIndex, length);
+                        });
+                        return new NpNdarrayLong(data, toIntArray(shape), javaStrides);
+                    }
+                    case NPY_FLOATLTR: {
+                        builder.addType("np.ndarray(dtype=np.float32)");
+                        float[] data = new float[lengthToInt(PyArray_Size(aryObj))];
+                        int[] javaStrides = copyElements(aryObj, shape, strides, itemsize, p -> {
+                            FloatPointer src = new FloatPointer(p);
+                            return (srcIndex, dstIndex, length) -> src.position(srcIndex).get(data, dstIndex, length);
+                        });
+                        return new NpNdarrayFloat(data, toIntArray(shape), javaStrides);
+                    }
+                    case NPY_DOUBLELTR: {
+                        builder.addType("np.ndarray(dtype=np.float64)");
+                        double[] data = new double[lengthToInt(PyArray_Size(aryObj))];
+                        int[] javaStrides = copyElements(aryObj, shape, strides, itemsize, p -> {
+                            DoublePointer src = new DoublePointer(p);
+                            return (srcIndex, dstIndex, length) -> src.position(srcIndex).get(data, dstIndex, length);
+                        });
+                        return new NpNdarrayDouble(data, toIntArray(shape), javaStrides);
+                    }
+                    case NPY_DATETIMELTR: {
+                        long[] longAry = new long[lengthToInt(PyArray_Size(aryObj))];
+                        int[] javaStrides = copyElements(aryObj, shape, strides, itemsize, p -> {
+                            LongPointer src = new LongPointer(p);
+                            return (srcIndex, dstIndex, length) -> src.position(srcIndex).get(longAry, dstIndex, length);
+                        });
+                        Instant[] data = new Instant[longAry.length];
+
+                        int datetimteUnit = new PyArray_DatetimeDTypeMetaData(aryObj.descr().c_metadata()).meta().base();
+                        switch (datetimteUnit) {
+                            case NPY_FR_W:
+                                builder.addType("np.ndarray(dtype=np.datetime64[W])");
+                                for (int i = 0; i < data.length; i++) {
+                                    data[i] = Instant.ofEpochSecond(longAry[i] * (7L * 24L * 60L * 60L));
+                                }
+                                break;
+                            case NPY_FR_D:
+                                builder.addType("np.ndarray(dtype=np.datetime64[D])");
+                                for (int i = 0; i < data.length; i++) {
+                                    data[i] = Instant.ofEpochSecond(longAry[i] * (24L * 60L * 60L));
+                                }
+                                break;
+                            case NPY_FR_h:
+                                builder.addType("np.ndarray(dtype=np.datetime64[h])");
+                                for (int i = 0; i < data.length; i++) {
+                                    data[i] = Instant.ofEpochSecond(longAry[i] * (60L * 60L));
+                                }
+                                break;
+                            case NPY_FR_m:
+                                builder.addType("np.ndarray(dtype=np.datetime64[m])");
+                                for (int i = 0; i < data.length; i++) {
+                                    data[i] = Instant.ofEpochSecond(longAry[i] * 60L);
+                                }
+                                break;
+                            case NPY_FR_s:
+                                builder.addType("np.ndarray(dtype=np.datetime64[s])");
+                                for (int i = 0; i < data.length; i++) {
+                                    data[i] = Instant.ofEpochSecond(longAry[i]);
+                                }
+                                break;
+                            case NPY_FR_ms:
+                                builder.addType("np.ndarray(dtype=np.datetime64[ms])");
+                                for (int i = 0; i < data.length; i++) {
+                                    data[i] = Instant.ofEpochMilli(longAry[i]);
+                                }
+                                break;
+                            case NPY_FR_us:
+                                builder.addType("np.ndarray(dtype=np.datetime64[us])");
+                                for (int i = 0; i < data.length; i++) {
+                                    data[i] = Instant.ofEpochSecond(
+                                            longAry[i] / 1000_000L,
+                                            longAry[i] % 1000_000L);
+                                }
+                                break;
+                            case NPY_FR_ns:
+                                builder.addType("np.ndarray(dtype=np.datetime64[ns])");
+                                for (int i = 0; i < data.length; i++) {
+                                    data[i] = Instant.ofEpochSecond(
+                                            longAry[i] / 1000_000_000L,
+                                            longAry[i] % 1000_000_000L);
+                                }
+                                break;
+                            default:
+                                builder.addType("np.ndarray(dtype=np.datetime64[???])  <- Unsupported datetime unit " + datetimteUnit);
+                                throw new PythonException("Cannot convert the Python object to a Java object.\n" +
+                                        "\nValue type tree\n" + builder.toString());
+                        }
+                        return new NpNdarrayInstant(data, toIntArray(shape), javaStrides);
+                    }
+                }
+                return unsupported(obj, builder);
+            };
+        } else if (t.equals(listType) || t.equals(tupleType)) {
+            boolean isList = t.equals(listType);
+            String typeName = isList ? "iterable(list)" : "iterable(tuple)";
+            return (obj, builder) -> {
+                Object shared = sharedJavaObject(obj, builder);
+                if (shared != null) {
+                    builder.addType(typeName + " (shared)");
+                    return shared;
+                }
+                builder.addType(typeName);
+                if (primitiveListConversion) {
+                    Object ary = toPrimitiveArray(obj);
+                    if (ary != null) {
+                        builder.tab++;
+                        builder.addType(ary.getClass().getSimpleName());
+                        builder.tab--;
+                        shareJavaObject(obj, ary, builder);
+                        return ary;
+                    }
+                }
+                SequenceFrame frame = new SequenceFrame(obj, isList, builder.tab + 1);
+                shareJavaObject(obj, frame.result(), builder);
+                return frame;
+            };
+        }
+        String iterableName = "iterable(" + new BytePointer(t.tp_name()).getString(UTF_8) + ")";
+        return (obj, builder) -> {
+            Object shared = sharedJavaObject(obj, builder);
+            if (shared != null) {
+                builder.addType(iterableName + " (shared)");
+                return shared;
             }
-        } else if (PyBytes_Check(obj)) {
-            builder.addType("bytes");
-            byte[] ary = new byte[lengthToInt(PyBytes_Size(obj))];
-            new BytePointer(PyBytes_AsString(obj)).get(ary);
-            return ary;
-        } else if (PyByteArray_Check(obj)) {
-            builder.addType("bytearray");
-            byte[] ary = new byte[lengthToInt(PyByteArray_Size(obj))];
-            new BytePointer(PyByteArray_AsString(obj)).get(ary);
-            return ary;
-        } else if (PyDict_Check(obj)) {
-            builder.addType("dict");
-            builder.tab++;
+            PyObject iterator = getIter(obj);
+            if (iterator == null) return unsupported(obj, builder);
+            builder.addType(iterableName);
+            IteratorFrame frame = new IteratorFrame(iterator, builder.tab + 1);
+            shareJavaObject(obj, frame.result(), builder);
+            return frame;
+        };
+    }
+
+    /**
+     * A container referred to many times in one conversion is converted once,
+     * and the Java object is shared like the Python object. This also converts cyclic containers.
+     *
+     * @return The Java object already converted from obj in this conversion, or null.
+     */
+    private static Object sharedJavaObject(PyObject obj, TypeTreeBuilder builder) {
+        return builder.javaObjects == null ? null : builder.javaObjects.get(obj.address());
+    }
+
+    /**
+     * Only a container with other references can be met again, which includes the containers in a cycle.
+     * The others, like the items of a generator, are not recorded and can be freed during the conversion.
+     * <p>
+     * obj is kept alive until the end of the conversion, so its address is not reused by another object.
+     */
+    private static void shareJavaObject(PyObject obj, Object value, TypeTreeBuilder builder) {
+        if (Py_REFCNT(obj) <= 1) return;
+        if (builder.javaObjects == null) {
+            builder.javaObjects = new HashMap<>();
+            builder.javaObjectSources = new ArrayList<>();
+        }
+        Py_IncRef(obj);
+        builder.javaObjectSources.add(obj);
+        builder.javaObjects.put(obj.address(), value);
+    }
+
+    /**
+     * @return The Python object already converted from value in this conversion, or null. A borrowed reference.
+     */
+    private static PyObject sharedPyObject(Object value, TypeTreeBuilder builder) {
+        return builder.pyObjects == null ? null : builder.pyObjects.get(value);
+    }
+
+    private static ToPyFrame openShared(ToPyContainerConverter converter, Object value, TypeTreeBuilder builder) {
+        ToPyFrame frame = converter.open(value, builder);
+        if (builder.pyObjects == null) builder.pyObjects = new IdentityHashMap<>();
+        builder.pyObjects.put(value, frame.obj);
+        return frame;
+    }
+
+    /**
+     * Called at the end of the outermost conversion.
+     */
+    private static void releaseSharedObjects(TypeTreeBuilder builder) {
+        if (builder.javaObjectSources != null) {
+            for (PyObject obj : builder.javaObjectSources) {
+                Py_DecRef(obj);
+            }
+        }
+        builder.javaObjects = null;
+        builder.javaObjectSources = null;
+        builder.pyObjects = null;
+    }
+
+    /**
+     * A Python container being converted.
+     * The containers are converted by a loop with a stack of frames, not by recursion,
+     * so deeply nested values don't overflow the Java stack.
+     */
+    private abstract static class ToJavaFrame {
+        // The tab of the children in the value type tree.
+        final int tab;
+
+        ToJavaFrame(int tab) {
+            this.tab = tab;
+        }
+
+        /**
+         * @return A borrowed reference to the next child, valid until the next call, or null at the end.
+         */
+        abstract PyObject next(TypeTreeBuilder builder);
+
+        abstract void add(Object value);
+
+        abstract Object result();
+
+        /**
+         * Release the Python objects. This is called at the end, or on failure.
+         */
+        void close() {
+        }
+    }
+
+    private static class SequenceFrame extends ToJavaFrame {
+        private final PyObject obj;
+        private final boolean isList;
+        private final long size;
+        private final ArrayList<Object> list;
+        private long i;
+
+        SequenceFrame(PyObject obj, boolean isList, int tab) {
+            super(tab);
+            this.obj = obj;
+            this.isList = isList;
+            this.size = isList ? PyList_Size(obj) : PyTuple_Size(obj);
+            this.list = new ArrayList<>(lengthToInt(size));
+        }
+
+        @Override
+        PyObject next(TypeTreeBuilder builder) {
+            // The list may shrink while its elements are converted.
+            if (i >= (isList ? Math.min(size, PyList_Size(obj)) : size)) return null;
+            builder.tab = tab;
+            return isList ? PyList_GetItem(obj, i++) : PyTuple_GetItem(obj, i++);
+        }
+
+        @Override
+        void add(Object value) {
+            list.add(value);
+        }
+
+        @Override
+        Object result() {
+            return list;
+        }
+    }
+
+    private static class DictFrame extends ToJavaFrame {
+        private final PyObject obj;
+        private final SizeTPointer pos = new SizeTPointer(1).put(0);
+        private final LinkedHashMap<Object, Object> map = new LinkedHashMap<>();
+        private PyObject value;
+        private Object key;
+        private boolean hasKey;
+
+        DictFrame(PyObject obj, int tab) {
+            super(tab);
+            this.obj = obj;
+        }
+
+        @Override
+        PyObject next(TypeTreeBuilder builder) {
+            if (hasKey) {
+                builder.tab = tab + 1;
+                return value;
+            }
+            PyObject key = new PyObject();
+            value = new PyObject();
+            if (PyDict_Next(obj, pos, key, value) == 0) return null;
+            builder.tab = tab;
+            builder.addType("item");
+            builder.tab = tab + 1;
+            return key;
+        }
+
+        @Override
+        void add(Object value) {
+            if (hasKey) {
+                map.put(key, value);
+                key = null;
+                hasKey = false;
+            } else {
+                key = value;
+                hasKey = true;
+            }
+        }
+
+        @Override
+        Object result() {
+            return map;
+        }
+    }
+
+    private static class IteratorFrame extends ToJavaFrame {
+        private final PyObject iterator;
+        private final ArrayList<Object> list = new ArrayList<>();
+        private PyObject item;
+
+        /**
+         * @param iterator A new reference, which this frame steals.
+         */
+        IteratorFrame(PyObject iterator, int tab) {
+            super(tab);
+            this.iterator = iterator;
+        }
 
-            SizeTPointer pos = new SizeTPointer(1).put(0);
-            LinkedHashMap<Object, Object> map = new LinkedHashMap<>();
-            while (true) {
-                PyObject key = new PyObject();
-                PyObject value = new PyObject();
-                int ok = PyDict_Next(obj, pos, key, value);
-                if (ok == 0) break;
-
-                builder.addType("item");
-                builder.tab++;
-                map.put(toJava(key, builder), toJava(value, builder));
-                builder.tab--;
-            }
+        @Override
+        PyObject next(TypeTreeBuilder builder) {
+            Py_DecRef(item);
+            item = PyIter_Next(iterator);
+            builder.tab = tab;
+            return item;
+        }
 
-            builder.tab--;
-            return map;
-        } else if (t.equals(arrayType)) {
-            PyArrayObject aryObj = new PyArrayObject(obj);
-            int ndim = PyArray_NDIM(aryObj);
-
-            SizeTPointer shapePtr = PyArray_DIMS(aryObj);
-            long[] shape = new long[ndim];
-            shapePtr.get(shape);
-
-            SizeTPointer stridesPtr = PyArray_STRIDES(aryObj);
-            long[] strides = new long[ndim];
-            stridesPtr.get(strides);
-
-            switch ((int) aryObj.descr().type()) {
-                case NPY_BOOLLTR: {
-                    builder.addType("np.ndarray(dtype=np.bool8)");
-                    BooleanPointer dataPtr = new BooleanPointer(PyArray_BYTES(aryObj));
-                    boolean[] data = new boolean[lengthToInt(PyArray_Size(aryObj))];
-                    dataPtr.get(data);
-                    return new NpNdarrayBoolean(data, toIntArray(shape), toIntArray(strides));
-                }
-                case NPY_BYTELTR: {
-                    builder.addType("np.ndarray(dtype=np.int8)");
-                    BytePointer dataPtr = new BytePointer(PyArray_BYTES(aryObj));
-                    byte[] data = new byte[lengthToInt(PyArray_Size(aryObj))];
-                    dataPtr.get(data);
-                    return new NpNdarrayByte(data, toIntArray(shape), toIntArray(strides));
-                }
-                case NPY_USHORTLTR: {
-                    builder.addType("np.ndarray(dtype=np.uint16)");
-                    CharPointer dataPtr = new CharPointer(PyArray_BYTES(aryObj));
-                    char[] data = new char[lengthToInt(PyArray_Size(aryObj))];
-                    dataPtr.get(data);
-                    return new NpNdarrayChar(data, toIntArray(shape), toIntArrayDiv(strides, 2));
-                }
-                case NPY_SHORTLTR: {
-                    builder.addType("np.ndarray(dtype=np.int16)");
-                    ShortPointer dataPtr = new ShortPointer(PyArray_BYTES(aryObj));
-                    short[] data = new short[lengthToInt(PyArray_Size(aryObj))];
-                    dataPtr.get(data);
-                    return new NpNdarrayShort(data, toIntArray(shape), toIntArrayDiv(strides, 2));
-                }
-                case NPY_INTLTR: {
-                    builder.addType("np.ndarray(dtype=np.int32)");
-                    IntPointer dataPtr = new IntPointer(PyArray_BYTES(aryObj));
-                    int[] data = new int[lengthToInt(PyArray_Size(aryObj))];
-                    dataPtr.get(data);
-                    return new NpNdarrayInt(data, toIntArray(shape), toIntArrayDiv(strides, 4));
-                }
-                case NPY_LONGLTR: {
-                    int itemsize = (int) PyArray_ITEMSIZE(aryObj);
-                    if (itemsize == 4) {
-                        builder.addType("np.ndarray(dtype=np.int32)");
-                        IntPointer dataPtr = new IntPointer(PyArray_BYTES(aryObj));
-                        int[] data = new int[lengthToInt(PyArray_Size(aryObj))];
-                        dataPtr.get(data);
-                        return new NpNdarrayInt(data, toIntArray(shape), toIntArrayDiv(strides, 4));
-                    } else if (itemsize == 8) {
-                        builder.addType("np.ndarray(dtype=np.int64)");
-                        LongPointer dataPtr = new LongPointer(PyArray_BYTES(aryObj));
-                        long[] data = new long[lengthToInt(PyArray_Size(aryObj))];
-                        dataPtr.get(data);
-                        return new NpNdarrayLong(data, toIntArray(shape), toIntArrayDiv(strides, 8));
-                    } else {
-                        builder.addType("np.ndarray(dtype=???)  <- Unsupported itemsize " + itemsize);
-                        throw new PythonException("Cannot convert the Python object to a Java object.\n" +
-                                "\nValue type tree\n" + builder.toString());
-                    }
-                }
-                case NPY_LONGLONGLTR: {
-                    builder.addType("np.ndarray(dtype=np.int64)");
-                    LongPointer dataPtr = new LongPointer(PyArray_BYTES(aryObj));
-                    long[] data = new long[lengthToInt(PyArray_Size(aryObj))];
-                    dataPtr.get(data);
-                    return new NpNdarrayLong(data, toIntArray(shape), toIntArrayDiv(strides, 8));
-                }
-                case NPY_FLOATLTR: {
-                    builder.addType("np.ndarray(dtype=np.float32)");
-                    FloatPointer dataPtr = new FloatPointer(PyArray_BYTES(aryObj));
-                    float[] data = new float[lengthToInt(PyArray_Size(aryObj))];
-                    dataPtr.get(data);
-                    return new NpNdarrayFloat(data, toIntArray(shape), toIntArrayDiv(strides, 4));
-                }
-                case NPY_DOUBLELTR: {
-                    builder.addType("np.ndarray(dtype=np.float64)");
-                    DoublePointer dataPtr = new DoublePointer(PyArray_BYTES(aryObj));
-                    double[] data = new double[lengthToInt(PyArray_Size(aryObj))];
-                    dataPtr.get(data);
-                    return new NpNdarrayDouble(data, toIntArray(shape), toIntArrayDiv(strides, 8));
-                }
-                case NPY_DATETIMELTR: {
-                    LongPointer dataPtr = new LongPointer(PyArray_BYTES(aryObj));
-                    long[] longAry = new long[lengthToInt(PyArray_Size(aryObj))];
-                    dataPtr.get(longAry);
-                    Instant[] data = new Instant[longAry.length];
-
-                    int datetimteUnit = new PyArray_DatetimeDTypeMetaData(aryObj.descr().c_metadata()).meta().base();
-                    switch (datetimteUnit) {
-                        case NPY_FR_W:
-                            builder.addType("np.ndarray(dtype=np.datetime64[W])");
-                            for (int i = 0; i < data.length; i++) {
-                                data[i] = Instant.ofEpochSecond(longAry[i] * (7L * 24L * 60L * 60L));
-                            }
-                            break;
-                        case NPY_FR_D:
-                            builder.addType("np.ndarray(dtype=np.datetime64[D])");
-                            for (int i = 0; i < data.length; i++) {
-                                data[i] = Instant.ofEpochSecond(longAry[i] * (24L * 60L * 60L));
-                            }
-                            break;
-                        case NPY_FR_h:
-                            builder.addType("np.ndarray(dtype=np.datetime64[h])");
-                            for (int i = 0; i < data.length; i++) {
-                                data[i] = Instant.ofEpochSecond(longAry[i] * (60L * 60L));
-                            }
-                            break;
-                        case NPY_FR_m:
-                            builder.addType("np.ndarray(dtype=np.datetime64[m])");
-                            for (int i = 0; i < data.length; i++) {
-                                data[i] = Instant.ofEpochSecond(longAry[i] * 60L);
-                            }
-                            break;
-                        case NPY_FR_s:
-                            builder.addType("np.ndarray(dtype=np.datetime64[s])");
-                            for (int i = 0; i < data.length; i++) {
-                                data[i] = Instant.ofEpochSecond(longAry[i]);
-                            }
-                            break;
-                        case NPY_FR_ms:
-                            builder.addType("np.ndarray(dtype=np.datetime64[ms])");
-                            for (int i = 0; i < data.length; i++) {
-                                data[i] = Instant.ofEpochMilli(longAry[i]);
-                            }
-                            break;
-                        case NPY_FR_us:
-                            builder.addType("np.ndarray(dtype=np.datetime64[us])");
-                            for (int i = 0; i < data.length; i++) {
-                                data[i] = Instant.ofEpochSecond(
-                                        longAry[i] / 1000_000L,
-                                        longAry[i] % 1000_000L);
-                            }
-                            break;
-                        case NPY_FR_ns:
-                            builder.addType("np.ndarray(dtype=np.datetime64[ns])");
-                            for (int i = 0; i < data.length; i++) {
-                                data[i] = Instant.ofEpochSecond(
-                                        longAry[i] / 1000_000_000L,
-                                        longAry[i] % 1000_000_000L);
-                            }
-                            break;
-                        default:
-                            builder.addType("np.ndarray(dtype=np.datetime64[???])  <- Unsupported datetime unit " + datetimteUnit);
-                            throw new PythonException("Cannot convert the Python object to a Java object.\n" +
-                                    "\nValue type tree\n" + builder.toString());
-                    }
-                    return new NpNdarrayInstant(data, toIntArray(shape), toIntArrayDiv(strides, 8));
-                }
-                // default:
-                // goto iterable type
-            }
-        } else if ((iterator = getIter(obj)) != null) {
-            try {
-                builder.addType("iterable(" + new BytePointer(t.tp_name()).getString(UTF_8) + ")");
-                builder.tab++;
+        @Override
+        void add(Object value) {
+            list.add(value);
+        }
 
-                ArrayList<Object> list = new ArrayList<>();
-                while (true) {
-                    PyObject item = PyIter_Next(iterator);
-                    try {
-                        if (item == null) break;
-                        list.add(toJava(item, builder));
-                    } finally {
-                        Py_DecRef(item);
-                    }
-                }
+        @Override
+        Object result() {
+            return list;
+        }
 
-                builder.tab--;
-                return list;
-            } finally {
-                Py_DecRef(iterator);
-            }
+        @Override
+        void close() {
+            Py_DecRef(item);
+            item = null;
+            Py_DecRef(iterator);
+        }
+    }
+
+    private static void checkConversionLimits(TypeTreeBuilder builder) {
+        if (++builder.values > maxConversionSize) {
+            throw new PythonException("The value contains more than " + maxConversionSize + " values. " +
+                    "See Python.setMaxConversionSize().\n" +
+                    "\nValue type tree\n" + builder.toString());
+        }
+        if (builder.depth() > maxConversionDepth) {
+            throw new PythonException("The value is nested deeper than " + maxConversionDepth + ". " +
+                    "See Python.setMaxConversionDepth().\n" +
+                    "\nValue type tree\n" + builder.toString());
         }
+    }
 
-        builder.addType(new BytePointer(t.tp_name()).getString(UTF_8) + "  <- Unsupported");
+    /**
+     * @throws PythonException Always.
+     */
+    private static Object unsupported(PyObject obj, TypeTreeBuilder builder) {
+        builder.addType(new BytePointer(PyTypes.Py_TYPE(obj).tp_name()).getString(UTF_8) + "  <- Unsupported");
         PyObject valueStrObj = PyObject_Str(obj);
         try {
             String msgPrefix = "Cannot convert the Python object to a Java object.\n" +
@@ -549,6 +2019,205 @@ public class Python {
         }
     }
 
+    /**
+     * Convert a list or tuple of only float or only int, possibly nested with a rectangular shape,
+     * without creating a Java object for each element.
+     *
+     * @return double[], long[], NpNdarrayDouble, NpNdarrayLong, or null if the list is not homogeneous.
+     */
+    private static Object toPrimitiveArray(PyObject obj) {
+        ArrayList<Integer> shapeList = new ArrayList<>();
+        long size = 1;
+        PyObject first = obj;
+        while (true) {
+            long n = sequenceLength(first);
+            if (n < 0) break;
+            if (n == 0) return null;
+            // Deeper or self-containing lists are left to the general conversion, which reports them.
+            if (shapeList.size() >= maxConversionDepth) return null;
+            size *= n;
+            if (size > Integer.MAX_VALUE) return null;
+            shapeList.add((int) n);
+            first = sequenceItem(first, 0);
+        }
+        int[] shape = shapeList.stream().mapToInt(x -> x).toArray();
+
+        PyTypeObject elementType = PyTypes.Py_TYPE(first);
+        if (elementType.equals(floatType)) {
+            double[] data = new double[(int) size];
+            if (!fillPrimitiveArray(obj, shape, data, null)) return null;
+            return shape.length == 1 ? data : new NpNdarrayDouble(data, shape, NpNdarray.toContiguousStrides(shape));
+        } else if (elementType.equals(longType)) {
+            long[] data = new long[(int) size];
+            if (!fillPrimitiveArray(obj, shape, null, data)) return null;
+            return shape.length == 1 ? data : new NpNdarrayLong(data, shape, NpNdarray.toContiguousStrides(shape));
+        }
+        return null;
+    }
+
+    /**
+     * Fill the Java array in C order, walking the lists by a stack of the current lists and indexes.
+     *
+     * @return false if the shape is not rectangular, or an element has another type or overflows long.
+     */
+    private static boolean fillPrimitiveArray(PyObject obj, int[] shape, double[] doubles, long[] longs) {
+        int leaf = shape.length - 1;
+        PyObject[] lists = new PyObject[shape.length];
+        int[] indexes = new int[shape.length];
+        if (sequenceLength(obj) != shape[0]) return false;
+        lists[0] = obj;
+        int depth = 0;
+        int position = 0;
+        int[] overflow = new int[1];
+        while (depth >= 0) {
+            if (depth < leaf) {
+                if (indexes[depth] == shape[depth]) {
+                    indexes[depth] = 0;
+                    depth--;
+                    continue;
+                }
+                PyObject item = sequenceItem(lists[depth], indexes[depth]++);
+                if (sequenceLength(item) != shape[depth + 1]) return false;
+                lists[++depth] = item;
+                continue;
+            }
+
+            PyObject list = lists[depth];
+            for (int i = 0; i < shape[depth]; i++) {
+                PyObject item = sequenceItem(list, i);
+                if (doubles != null) {
+                    if (!PyTypes.Py_TYPE(item).equals(floatType)) return false;
+                    doubles[position++] = PyFloat_AsDouble(item);
+                } else {
+                    if (!PyTypes.Py_TYPE(item).equals(longType)) return false;
+                    longs[position++] = PyLong_AsLongAndOverflow(item, overflow);
+                    if (overflow[0] != 0) return false;
+                }
+            }
+            depth--;
+        }
+        return true;
+    }
+
+    /**
+     * @return The length of the list or tuple, or -1 if the object is neither of them.
+     */
+    private static long sequenceLength(PyObject obj) {
+        PyTypeObject t = PyTypes.Py_TYPE(obj);
+        if (t.equals(listType)) return PyList_Size(obj);
+        if (t.equals(tupleType)) return PyTuple_Size(obj);
+        return -1;
+    }
+
+    /**
+     * @param obj A list or tuple.
+     * @return A borrowed reference.
+     */
+    private static PyObject sequenceItem(PyObject obj, long i) {
+        return PyTypes.Py_TYPE(obj).equals(listType) ? PyList_GetItem(obj, i) : PyTuple_GetItem(obj, i);
+    }
+
+    @FunctionalInterface
+    private interface RunCopier {
+        /**
+         * Copy the contiguous elements to the Java array. The indexes are in elements.
+         */
+        void copy(long srcIndex, int dstIndex, int length);
+    }
+
+    /**
+     * Copy the elements of the ndarray to a Java array.
+     * <p>
+     * C-contiguous and F-contiguous ndarrays are copied at once and keep their order.
+     * The other ndarrays, for example slices, are copied in C order one innermost run at a time
+     * if the innermost dimension is contiguous. Negative strides are supported.
+     * Otherwise, for example transposed views, numpy makes a C-contiguous copy, which is copied at once.
+     *
+     * @param copier Creates the RunCopier from the pointer to the lowest address of the elements.
+     * @return The strides of the Java array in elements.
+     */
+    private static int[] copyElements(PyArrayObject aryObj, long[] shape, long[] strides, int itemsize,
+                                      Function<Pointer, RunCopier> copier) {
+        int size = lengthToInt(PyArray_Size(aryObj));
+        int[] intShape = toIntArray(shape);
+        if (size == 0) return NpNdarray.toContiguousStrides(intShape);
+
+        int flags = PyArray_FLAGS(aryObj);
+        if ((flags & NPY_ARRAY_C_CONTIGUOUS) != 0) {
+            copier.apply(PyArray_BYTES(aryObj)).copy(0, 0, size);
+            return NpNdarray.toContiguousStrides(intShape);
+        }
+        if ((flags & NPY_ARRAY_F_CONTIGUOUS) != 0) {
+            copier.apply(PyArray_BYTES(aryObj)).copy(0, 0, size);
+            return toFortranStrides(intShape);
+        }
+
+        int ndim = shape.length;
+        int inner = ndim - 1;
+        int innerLength = intShape[inner];
+        boolean runs = innerLength > 1 && strides[inner] == itemsize;
+        for (int i = 0; i < ndim; i++) {
+            runs &= strides[i] % itemsize == 0;
+        }
+        if (!runs) {
+            // Unaligned elements or runs of one element, which would cost a JNI call per element.
+            PyObject copy = PyArray_NewCopy(aryObj, NPY_CORDER);
+            if (copy == null) throw new PythonException("PyArray_NewCopy() failed");
+            try {
+                PyArrayObject copyAry = new PyArrayObject(copy);
+                copier.apply(PyArray_BYTES(copyAry)).copy(0, 0, size);
+                return NpNdarray.toContiguousStrides(intShape);
+            } finally {
+                Py_DecRef(copy);
+            }
+        }
+
+        long[] elementStrides = new long[ndim];
+        long minIndex = 0;
+        for (int i = 0; i < ndim; i++) {
+            elementStrides[i] = strides[i] / itemsize;
+            if (elementStrides[i] < 0) minIndex += (shape[i] - 1) * elementStrides[i];
+        }
+
+        RunCopier run = copier.apply(addressPointer(PyArray_BYTES(aryObj).address() + minIndex * itemsize));
+        long[] index = new long[ndim];
+        long src = -minIndex;
+        int dst = 0;
+        while (true) {
+            run.copy(src, dst, innerLength);
+            dst += innerLength;
+
+            int k = inner - 1;
+            for (; k >= 0; k--) {
+                index[k]++;
+                src += elementStrides[k];
+                if (index[k] < shape[k]) break;
+                src -= elementStrides[k] * shape[k];
+                index[k] = 0;
+            }
+            if (k < 0) break;
+        }
+        return NpNdarray.toContiguousStrides(intShape);
+    }
+
+    private static int[] toFortranStrides(int[] shape) {
+        int[] strides = new int[shape.length];
+        int s = 1;
+        for (int i = 0; i < shape.length; i++) {
+            strides[i] = s;
+            s *= shape[i];
+        }
+        return strides;
+    }
+
+    private static Pointer addressPointer(long value) {
+        return new Pointer() {
+            {
+                address = value;
+            }
+        };
+    }
+
     private static int lengthToInt(long length) {
         if (length > Integer.MAX_VALUE) {
             throw new PythonException("Cannot convert because the length is larger than 2G");
@@ -559,356 +2228,852 @@ public class Python {
     /**
      * Don't forget to call Py_DecRef().
      */
-    private static PyObject toPyObject(Object value, TypeTreeBuilder builder) {
-        if (value == null) {
-            builder.addType("null");
-            return _Py_NoneStruct();
-        } else if (value instanceof Boolean) {
-            builder.addType("Boolean");
-            return PyBool_FromLong((Boolean) value ? 1 : 0);
-        } else if (value instanceof Byte) {
-            builder.addType("Byte");
-            return PyLong_FromLong((Byte) value);
-        } else if (value instanceof Character) {
-            builder.addType("Character");
-            return PyLong_FromLong((Character) value);
-        } else if (value instanceof Short) {
-            builder.addType("Short");
-            return PyLong_FromLong((Short) value);
-        } else if (value instanceof Integer) {
-            builder.addType("Integer");
-            return PyLong_FromLong((Integer) value);
-        } else if (value instanceof Long) {
-            builder.addType("Long");
-            return PyLong_FromLong((Long) value);
-        } else if (value instanceof Float) {
-            builder.addType("Float");
-            return PyFloat_FromDouble((Float) value);
-        } else if (value instanceof Double) {
-            builder.addType("Double");
-            return PyFloat_FromDouble((Double) value);
-        } else if (value instanceof Instant) {
-            builder.addType("Instant");
-            try {
-                Instant instant = (Instant) value;
-                LongPointer ptr = new LongPointer(1).put(
-                        Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1000_000_000L), instant.getNano()));
-                PyArray_Descr descr = PyArray_DescrNewFromType(NPY_DATETIME);
-                new PyArray_DatetimeDTypeMetaData(descr.c_metadata()).meta().base(NPY_FR_ns).num(1);
-                return PyArray_Scalar(ptr, descr, null);
-            } catch (ArithmeticException e) {
-                throw new RuntimeException("Instant date range is outside of datetime64[ns] (1678-2262).", e);
-            }
-        } else if (value instanceof String) {
-            builder.addType("String");
-            return PyUnicode_FromString((String) value);
-        } else if (value instanceof byte[]) {
-            builder.addType("byte[]");
-            byte[] ary = (byte[]) value;
-            return PyBytes_FromStringAndSize(new BytePointer(ary), ary.length);
-        } else if (value instanceof boolean[]) {
-            builder.addType("boolean[]");
-            boolean[] ary = (boolean[]) value;
-            SizeTPointer dims = new SizeTPointer(1).put(ary.length);
-            BooleanPointer data = new BooleanPointer(ary);
-            return PyArray_New(arrayType, 1, dims, NPY_BOOL, null, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof char[]) {
-            builder.addType("char[]");
-            char[] ary = (char[]) value;
-            SizeTPointer dims = new SizeTPointer(1).put(ary.length);
-            CharPointer data = new CharPointer(ary);
-            return PyArray_New(arrayType, 1, dims, NPY_USHORT, null, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof short[]) {
-            builder.addType("short[]");
-            short[] ary = (short[]) value;
-            SizeTPointer dims = new SizeTPointer(1).put(ary.length);
-            ShortPointer data = new ShortPointer(ary);
-            return PyArray_New(arrayType, 1, dims, NPY_SHORT, null, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof int[]) {
-            builder.addType("int[]");
-            int[] ary = (int[]) value;
-            SizeTPointer dims = new SizeTPointer(1).put(ary.length);
-            IntPointer data = new IntPointer(ary);
-            return PyArray_New(arrayType, 1, dims, NPY_INT, null, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof long[]) {
-            builder.addType("long[]");
-            long[] ary = (long[]) value;
-            SizeTPointer dims = new SizeTPointer(1).put(ary.length);
-            LongPointer data = new LongPointer(ary);
-            return PyArray_New(arrayType, 1, dims, NPY_LONGLONG, null, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof float[]) {
-            builder.addType("float[]");
-            float[] ary = (float[]) value;
-            SizeTPointer dims = new SizeTPointer(1).put(ary.length);
-            FloatPointer data = new FloatPointer(ary);
-            return PyArray_New(arrayType, 1, dims, NPY_FLOAT, null, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof double[]) {
-            builder.addType("double[]");
-            double[] ary = (double[]) value;
-            SizeTPointer dims = new SizeTPointer(1).put(ary.length);
-            DoublePointer data = new DoublePointer(ary);
-            return PyArray_New(arrayType, 1, dims, NPY_DOUBLE, null, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof Instant[]) {
-            builder.addType("Instant[]");
-            try {
-                Instant[] ary = (Instant[]) value;
-                SizeTPointer dims = new SizeTPointer(1).put(ary.length);
-                LongPointer data = new LongPointer(Arrays.stream(ary).mapToLong(instant ->
-                        Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1000_000_000L), instant.getNano())
-                ).toArray());
-                PyArray_Descr descr = PyArray_DescrNewFromType(NPY_DATETIME);
-                new PyArray_DatetimeDTypeMetaData(descr.c_metadata()).meta().base(NPY_FR_ns).num(1);
-                return PyArray_NewFromDescr(arrayType, descr, 1, dims, null, data, NPY_ARRAY_CARRAY, null);
-            } catch (ArithmeticException e) {
-                throw new RuntimeException("Instant date range is outside of datetime64[ns] (1678-2262).", e);
-            }
-        } else if (value instanceof NpNdarrayByte) {
-            builder.addType("NpNdarrayByte");
-            NpNdarrayByte ndary = (NpNdarrayByte) value;
-            SizeTPointer dims = new SizeTPointer(toLongArray(ndary.shape));
-            SizeTPointer strides = new SizeTPointer(ndary.stridesInBytes());
-            BytePointer data = new BytePointer(ndary.data);
-            return PyArray_New(arrayType, ndary.ndim(), dims, NPY_BYTE, strides, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof NpNdarrayBoolean) {
-            builder.addType("NpNdarrayBoolean");
-            NpNdarrayBoolean ndary = (NpNdarrayBoolean) value;
-            SizeTPointer dims = new SizeTPointer(toLongArray(ndary.shape));
-            SizeTPointer strides = new SizeTPointer(ndary.stridesInBytes());
-            BooleanPointer data = new BooleanPointer(ndary.data);
-            return PyArray_New(arrayType, ndary.ndim(), dims, NPY_BOOL, strides, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof NpNdarrayChar) {
-            builder.addType("NpNdarrayChar");
-            NpNdarrayChar ndary = (NpNdarrayChar) value;
-            SizeTPointer dims = new SizeTPointer(toLongArray(ndary.shape));
-            SizeTPointer strides = new SizeTPointer(ndary.stridesInBytes());
-            CharPointer data = new CharPointer(ndary.data);
-            return PyArray_New(arrayType, ndary.ndim(), dims, NPY_USHORT, strides, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof NpNdarrayShort) {
-            builder.addType("NpNdarrayShort");
-            NpNdarrayShort ndary = (NpNdarrayShort) value;
-            SizeTPointer dims = new SizeTPointer(toLongArray(ndary.shape));
-            SizeTPointer strides = new SizeTPointer(ndary.stridesInBytes());
-            ShortPointer data = new ShortPointer(ndary.data);
-            return PyArray_New(arrayType, ndary.ndim(), dims, NPY_SHORT, strides, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof NpNdarrayInt) {
-            builder.addType("NpNdarrayInt");
-            NpNdarrayInt ndary = (NpNdarrayInt) value;
-            SizeTPointer dims = new SizeTPointer(toLongArray(ndary.shape));
-            SizeTPointer strides = new SizeTPointer(ndary.stridesInBytes());
-            IntPointer data = new IntPointer(ndary.data);
-            return PyArray_New(arrayType, ndary.ndim(), dims, NPY_INT, strides, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof NpNdarrayLong) {
-            builder.addType("NpNdarrayLong");
-            NpNdarrayLong ndary = (NpNdarrayLong) value;
-            SizeTPointer dims = new SizeTPointer(toLongArray(ndary.shape));
-            SizeTPointer strides = new SizeTPointer(ndary.stridesInBytes());
-            LongPointer data = new LongPointer(ndary.data);
-            return PyArray_New(arrayType, ndary.ndim(), dims, NPY_LONGLONG, strides, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof NpNdarrayFloat) {
-            builder.addType("NpNdarrayFloat");
-            NpNdarrayFloat ndary = (NpNdarrayFloat) value;
-            SizeTPointer dims = new SizeTPointer(toLongArray(ndary.shape));
-            SizeTPointer strides = new SizeTPointer(ndary.stridesInBytes());
-            FloatPointer data = new FloatPointer(ndary.data);
-            return PyArray_New(arrayType, ndary.ndim(), dims, NPY_FLOAT, strides, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof NpNdarrayDouble) {
-            builder.addType("NpNdarrayDouble");
-            NpNdarrayDouble ndary = (NpNdarrayDouble) value;
-            SizeTPointer dims = new SizeTPointer(toLongArray(ndary.shape));
-            SizeTPointer strides = new SizeTPointer(ndary.stridesInBytes());
-            DoublePointer data = new DoublePointer(ndary.data);
-            return PyArray_New(arrayType, ndary.ndim(), dims, NPY_DOUBLE, strides, data, 0, NPY_ARRAY_CARRAY, null);
-        } else if (value instanceof NpNdarrayInstant) {
-            builder.addType("NpNdarrayInstant");
-            try {
-                NpNdarrayInstant ndary = (NpNdarrayInstant) value;
-                SizeTPointer dims = new SizeTPointer(toLongArray(ndary.shape));
-                SizeTPointer strides = new SizeTPointer(ndary.stridesInBytes());
-                LongPointer data = new LongPointer(Arrays.stream(ndary.data).mapToLong(instant ->
-                        Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1000_000_000L), instant.getNano())
-                ).toArray());
-                PyArray_Descr descr = PyArray_DescrNewFromType(NPY_DATETIME);
-                new PyArray_DatetimeDTypeMetaData(descr.c_metadata()).meta().base(NPY_FR_ns).num(1);
-                return PyArray_NewFromDescr(arrayType, descr, ndary.ndim(), dims, strides, data, NPY_ARRAY_CARRAY, null);
-            } catch (ArithmeticException e) {
-                throw new RuntimeException("Instant date range is outside of datetime64[ns] (1678-2262).", e);
-            }
-        } else if (value instanceof Map) {
-            builder.addType("Map");
-            builder.tab++;
+    static PyObject toPyObject(Object value, TypeTreeBuilder builder) {
+        builder.nesting++;
+        try {
+            checkConversionLimits(builder);
+            return toPyConverter(value).convert(value, builder);
+        } finally {
+            if (--builder.nesting == 0) releaseSharedObjects(builder);
+        }
+    }
 
-            @SuppressWarnings("unchecked")
-            Map<Object, Object> map = (Map<Object, Object>) value;
-            PyObject obj = PyDict_New();
-            map.forEach((key, v) -> {
-                builder.addType("Map.Entry");
-                builder.tab++;
-                PyDict_SetItem(obj, toPyObject(key, builder), toPyObject(v, builder));
-                builder.tab--;
-            });
+    private static ToPyConverter toPyConverter(Object value) {
+        return value == null ? noneConverter : toPyConverters.get(value.getClass());
+    }
 
-            builder.tab--;
-            return obj;
-        } else if (value instanceof scala.collection.Map) {
-            builder.addType("scala.collection.Map");
-            builder.tab++;
+    private static final ToPyConverter noneConverter = (value, builder) -> {
+        builder.addType("null");
+        return _Py_NoneStruct();
+    };
+
+    private static PyObject toPyIterative(ToPyFrame root, TypeTreeBuilder builder) {
+        int rootTab = builder.tab;
+        ArrayList<ToPyFrame> stack = new ArrayList<>();
+        stack.add(root);
+        try {
+            while (true) {
+                ToPyFrame top = stack.get(stack.size() - 1);
+                if (top.next(builder)) {
+                    Object child = top.child;
+                    top.child = null;
+                    checkConversionLimits(builder);
+                    ToPyConverter converter = toPyConverter(child);
+                    if (converter instanceof ToPyContainerConverter) {
+                        PyObject shared = sharedPyObject(child, builder);
+                        if (shared != null) {
+                            builder.addType(child.getClass().getName() + " (shared)");
+                            Py_IncRef(shared);
+                            top.add(shared, builder);
+                        } else {
+                            stack.add(openShared((ToPyContainerConverter) converter, child, builder));
+                        }
+                    } else {
+                        top.add(converter.convert(child, builder), builder);
+                    }
+                } else {
+                    stack.remove(stack.size() - 1);
+                    PyObject obj = top.obj;
+                    top.obj = null;
+                    if (stack.isEmpty()) return obj;
+                    stack.get(stack.size() - 1).add(obj, builder);
+                }
+            }
+        } finally {
+            // On failure, the released containers must not be shared anymore.
+            if (!stack.isEmpty()) builder.pyObjects = null;
+            for (ToPyFrame frame : stack) {
+                frame.close();
+            }
+            builder.tab = rootTab;
+        }
+    }
+
+    /**
+     * The converter of a Java container. The elements are converted by {@link #toPyIterative}.
+     */
+    private interface ToPyContainerConverter extends ToPyConverter {
+        ToPyFrame open(Object value, TypeTreeBuilder builder);
 
-            @SuppressWarnings("unchecked")
-            scala.collection.Map<Object, Object> map = (scala.collection.Map<Object, Object>) value;
-            PyObject obj = PyDict_New();
-            map.foreachEntry((key, v) -> {
-                builder.addType("Map.Entry");
-                builder.tab++;
-                PyDict_SetItem(obj, toPyObject(key, builder), toPyObject(v, builder));
+        @Override
+        default PyObject convert(Object value, TypeTreeBuilder builder) {
+            PyObject shared = sharedPyObject(value, builder);
+            if (shared != null) {
+                builder.addType(value.getClass().getName() + " (shared)");
+                Py_IncRef(shared);
+                return shared;
+            }
+            return toPyIterative(openShared(this, value, builder), builder);
+        }
+    }
+
+    /**
+     * A Java container being converted. See {@link ToJavaFrame}.
+     */
+    private abstract static class ToPyFrame {
+        // The tab of the children in the value type tree.
+        final int tab;
+        // A new reference to the Python container.
+        PyObject obj;
+        // The next child set by next().
+        Object child;
+
+        ToPyFrame(PyObject obj, int tab) {
+            this.obj = obj;
+            this.tab = tab;
+        }
+
+        /**
+         * Set the next child to {@link #child}.
+         *
+         * @return false at the end.
+         */
+        abstract boolean next(TypeTreeBuilder builder);
+
+        /**
+         * @param value A new reference to the converted child, which this method steals.
+         */
+        abstract void add(PyObject value, TypeTreeBuilder builder);
+
+        /**
+         * Release the Python objects on failure.
+         */
+        void close() {
+            Py_DecRef(obj);
+            obj = null;
+        }
+    }
+
+    private static class ArrayFrame extends ToPyFrame {
+        private final Object[] ary;
+        private int i;
+
+        ArrayFrame(Object[] ary, int tab) {
+            super(PyList_New(ary.length), tab);
+            this.ary = ary;
+        }
+
+        @Override
+        boolean next(TypeTreeBuilder builder) {
+            if (i >= ary.length) return false;
+            builder.tab = tab;
+            child = ary[i++];
+            return true;
+        }
+
+        @Override
+        void add(PyObject value, TypeTreeBuilder builder) {
+            // PyList_SetItem() steals the reference.
+            PyList_SetItem(obj, i - 1, value);
+        }
+    }
+
+    private static class IterableFrame extends ToPyFrame {
+        private final Iterator<?> iterator;
+
+        IterableFrame(Iterator<?> iterator, int tab) {
+            super(PyList_New(0), tab);
+            this.iterator = iterator;
+        }
+
+        @Override
+        boolean next(TypeTreeBuilder builder) {
+            if (!iterator.hasNext()) return false;
+            builder.tab = tab;
+            child = iterator.next();
+            return true;
+        }
+
+        @Override
+        void add(PyObject value, TypeTreeBuilder builder) {
+            PyList_Append(obj, value);
+            Py_DecRef(value);
+        }
+    }
+
+    private abstract static class MapFrame extends ToPyFrame {
+        Object entryKey;
+        Object entryValue;
+        private PyObject key;
+        private boolean hasKey;
+
+        MapFrame(int tab) {
+            super(PyDict_New(), tab);
+        }
+
+        /**
+         * Set the next entry to {@link #entryKey} and {@link #entryValue}.
+         *
+         * @return false at the end.
+         */
+        abstract boolean nextEntry();
+
+        @Override
+        boolean next(TypeTreeBuilder builder) {
+            if (hasKey) {
+                builder.tab = tab + 1;
+                child = entryValue;
+                return true;
+            }
+            if (!nextEntry()) return false;
+            builder.tab = tab;
+            builder.addType("Map.Entry");
+            builder.tab = tab + 1;
+            child = entryKey;
+            return true;
+        }
+
+        @Override
+        void add(PyObject value, TypeTreeBuilder builder) {
+            if (!hasKey) {
+                key = value;
+                hasKey = true;
+                return;
+            }
+            int result = PyDict_SetItem(obj, key, value);
+            Py_DecRef(key);
+            Py_DecRef(value);
+            key = null;
+            hasKey = false;
+            if (result != 0) {
+                PyErr_Clear();
+                throw new PythonException("The key of Map.Entry cannot be a key of dict.\n" +
+                        "\nValue type tree\n" + builder.toString());
+            }
+        }
+
+        @Override
+        void close() {
+            Py_DecRef(key);
+            key = null;
+            super.close();
+        }
+    }
+
+    /**
+     * The elements converted by {@link PyConverter} are shown one level deeper in the value type tree.
+     */
+    private static class ConverterContext implements PyConverter.Context {
+        private final TypeTreeBuilder builder;
+
+        ConverterContext(TypeTreeBuilder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public PyObject toPython(Object value) {
+            builder.tab++;
+            try {
+                return toPyObject(value, builder);
+            } finally {
                 builder.tab--;
-                return null;
-            });
+            }
+        }
 
-            builder.tab--;
-            return obj;
-        } else if (value instanceof Object[]) {
-            builder.addType("Object[]");
+        @Override
+        public Object toJava(PyObject obj) {
             builder.tab++;
+            try {
+                return Python.toJava(obj, builder);
+            } finally {
+                builder.tab--;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ToPyConverter {
+        /**
+         * Don't forget to call Py_DecRef().
+         */
+        PyObject convert(Object value, TypeTreeBuilder builder);
+    }
+
+    /**
+     * The converter of each Java class, so each value costs one lookup instead of a chain of instanceof.
+     */
+    private static volatile ClassValue<ToPyConverter> toPyConverters = newToPyConverters();
 
-            Object[] ary = (Object[]) value;
-            PyObject obj = PyList_New(ary.length);
-            for (int i = 0; i < ary.length; i++) {
-                PyList_SetItem(obj, i, toPyObject(ary[i], builder));
+    private static ClassValue<ToPyConverter> newToPyConverters() {
+        return new ClassValue<ToPyConverter>() {
+            @Override
+            protected ToPyConverter computeValue(Class<?> c) {
+                return findToPyConverter(c);
             }
+        };
+    }
 
-            builder.tab--;
-            return obj;
-        } else if (value instanceof Iterable) {
-            builder.addType("Iterable(" + value.getClass().getName() + ")");
-            builder.tab++;
+    /**
+     * The registered converters come first. Then the first matching class in this order wins.
+     */
+    private static ToPyConverter findToPyConverter(Class<?> c) {
+        PyConverter userConverter = converterRegistry().findForClass(c);
+        if (userConverter != null) {
+            String name = c.getName();
+            return (value, builder) -> {
+                builder.addType(name);
+                PyObject obj = userConverter.toPython(value, new ConverterContext(builder));
+                if (obj == null) {
+                    if (PyErr_Occurred() != null) PyErr_Print();
+                    throw new PythonException(userConverter.getClass().getName() + ".toPython() failed.\n" +
+                            "\nValue type tree\n" + builder.toString());
+                }
+                return obj;
+            };
+        } else if (Boolean.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("Boolean");
+                return PyBool_FromLong((Boolean) value ? 1 : 0);
+            };
+        } else if (Byte.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("Byte");
+                return PyLong_FromLong((Byte) value);
+            };
+        } else if (Character.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("Character");
+                return PyLong_FromLong((Character) value);
+            };
+        } else if (Short.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("Short");
+                return PyLong_FromLong((Short) value);
+            };
+        } else if (Integer.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("Integer");
+                return PyLong_FromLong((Integer) value);
+            };
+        } else if (Long.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("Long");
+                return PyLong_FromLong((Long) value);
+            };
+        } else if (Float.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("Float");
+                return PyFloat_FromDouble((Float) value);
+            };
+        } else if (Double.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("Double");
+                return PyFloat_FromDouble((Double) value);
+            };
+        } else if (Instant.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("Instant");
+                requireMainInterpreter(builder);
+                try {
+                    Instant instant = (Instant) value;
+                    LongPointer ptr = new LongPointer(1).put(
+                            Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1000_000_000L), instant.getNano()));
+                    PyArray_Descr descr = PyArray_DescrNewFromType(NPY_DATETIME);
+                    new PyArray_DatetimeDTypeMetaData(descr.c_metadata()).meta().base(NPY_FR_ns).num(1);
+                    return PyArray_Scalar(ptr, descr, null);
+                } catch (ArithmeticException e) {
+                    throw new RuntimeException("Instant date range is outside of datetime64[ns] (1678-2262).", e);
+                }
+            };
+        } else if (String.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("String");
+                return PyStrings.toPyUnicode((String) value);
+            };
+        } else if (NpNdarrayView.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("NpNdarrayView");
+                requireMainInterpreter(builder);
+                NpNdarrayView view = (NpNdarrayView) value;
+                if (view.ref() == null) return wrapJavaMemory(view);
+                PyObject obj = view.ref().pyObject();
+                Py_IncRef(obj);
+                return obj;
+            };
+        } else if (PyRef.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("PyRef");
+                requireMainInterpreter(builder);
+                PyObject obj = ((PyRef) value).pyObject();
+                Py_IncRef(obj);
+                return obj;
+            };
+        } else if (byte[].class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("byte[]");
+                byte[] ary = (byte[]) value;
+                return PyBytes_FromStringAndSize(new BytePointer(ary), ary.length);
+            };
+        } else if (boolean[].class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("boolean[]");
+                requireMainInterpreter(builder);
+                boolean[] ary = (boolean[]) value;
+                return newArray(NPY_BOOL, ary.length, null, data -> new BooleanPointer(data).put(ary));
+            };
+        } else if (char[].class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("char[]");
+                requireMainInterpreter(builder);
+                char[] ary = (char[]) value;
+                return newArray(NPY_USHORT, ary.length, null, data -> new CharPointer(data).put(ary));
+            };
+        } else if (short[].class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("short[]");
+                requireMainInterpreter(builder);
+                short[] ary = (short[]) value;
+                return newArray(NPY_SHORT, ary.length, null, data -> new ShortPointer(data).put(ary));
+            };
+        } else if (int[].class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("int[]");
+                requireMainInterpreter(builder);
+                int[] ary = (int[]) value;
+                return newArray(NPY_INT, ary.length, null, data -> new IntPointer(data).put(ary));
+            };
+        } else if (long[].class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("long[]");
+                requireMainInterpreter(builder);
+                long[] ary = (long[]) value;
+                return newArray(NPY_LONGLONG, ary.length, null, data -> new LongPointer(data).put(ary));
+            };
+        } else if (float[].class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("float[]");
+                requireMainInterpreter(builder);
+                float[] ary = (float[]) value;
+                return newArray(NPY_FLOAT, ary.length, null, data -> new FloatPointer(data).put(ary));
+            };
+        } else if (double[].class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("double[]");
+                requireMainInterpreter(builder);
+                double[] ary = (double[]) value;
+                return newArray(NPY_DOUBLE, ary.length, null, data -> new DoublePointer(data).put(ary));
+            };
+        } else if (Instant[].class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("Instant[]");
+                requireMainInterpreter(builder);
+                try {
+                    long[] ary = toEpochNanos((Instant[]) value);
+                    return newArray(datetime64nsDescr(), ary.length, null, data -> new LongPointer(data).put(ary));
+                } catch (ArithmeticException e) {
+                    throw new RuntimeException("Instant date range is outside of datetime64[ns] (1678-2262).", e);
+                }
+            };
+        } else if (NpNdarrayByte.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("NpNdarrayByte");
+                requireMainInterpreter(builder);
+                NpNdarrayByte ndary = (NpNdarrayByte) value;
+                return newArray(NPY_BYTE, ndary.data.length, ndary, data -> new BytePointer(data).put(ndary.data));
+            };
+        } else if (NpNdarrayBoolean.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("NpNdarrayBoolean");
+                requireMainInterpreter(builder);
+                NpNdarrayBoolean ndary = (NpNdarrayBoolean) value;
+                return newArray(NPY_BOOL, ndary.data.length, ndary, data -> new BooleanPointer(data).put(ndary.data));
+            };
+        } else if (NpNdarrayChar.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("NpNdarrayChar");
+                requireMainInterpreter(builder);
+                NpNdarrayChar ndary = (NpNdarrayChar) value;
+                return newArray(NPY_USHORT, ndary.data.length, ndary, data -> new CharPointer(data).put(ndary.data));
+            };
+        } else if (NpNdarrayShort.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("NpNdarrayShort");
+                requireMainInterpreter(builder);
+                NpNdarrayShort ndary = (NpNdarrayShort) value;
+                return newArray(NPY_SHORT, ndary.data.length, ndary, data -> new ShortPointer(data).put(ndary.data));
+            };
+        } else if (NpNdarrayInt.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("NpNdarrayInt");
+                requireMainInterpreter(builder);
+                NpNdarrayInt ndary = (NpNdarrayInt) value;
+                return newArray(NPY_INT, ndary.data.length, ndary, data -> new IntPointer(data).put(ndary.data));
+            };
+        } else if (NpNdarrayLong.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("NpNdarrayLong");
+                requireMainInterpreter(builder);
+                NpNdarrayLong ndary = (NpNdarrayLong) value;
+                return newArray(NPY_LONGLONG, ndary.data.length, ndary, data -> new LongPointer(data).put(ndary.data));
+            };
+        } else if (NpNdarrayFloat.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("NpNdarrayFloat");
+                requireMainInterpreter(builder);
+                NpNdarrayFloat ndary = (NpNdarrayFloat) value;
+                return newArray(NPY_FLOAT, ndary.data.length, ndary, data -> new FloatPointer(data).put(ndary.data));
+            };
+        } else if (NpNdarrayDouble.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("NpNdarrayDouble");
+                requireMainInterpreter(builder);
+                NpNdarrayDouble ndary = (NpNdarrayDouble) value;
+                return newArray(NPY_DOUBLE, ndary.data.length, ndary, data -> new DoublePointer(data).put(ndary.data));
+            };
+        } else if (NpNdarrayInstant.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("NpNdarrayInstant");
+                requireMainInterpreter(builder);
+                try {
+                    NpNdarrayInstant ndary = (NpNdarrayInstant) value;
+                    long[] ary = toEpochNanos(ndary.data);
+                    return newArray(datetime64nsDescr(), ary.length, ndary, data -> new LongPointer(data).put(ary));
+                } catch (ArithmeticException e) {
+                    throw new RuntimeException("Instant date range is outside of datetime64[ns] (1678-2262).", e);
+                }
+            };
+        } else if (Map.class.isAssignableFrom(c)) {
+            return (ToPyContainerConverter) (value, builder) -> {
+                builder.addType("Map");
+                Iterator<? extends Map.Entry<?, ?>> entries = ((Map<?, ?>) value).entrySet().iterator();
+                return new MapFrame(builder.tab + 1) {
+                    @Override
+                    boolean nextEntry() {
+                        if (!entries.hasNext()) return false;
+                        Map.Entry<?, ?> entry = entries.next();
+                        entryKey = entry.getKey();
+                        entryValue = entry.getValue();
+                        return true;
+                    }
+                };
+            };
+        } else if (scala.collection.Map.class.isAssignableFrom(c)) {
+            return (ToPyContainerConverter) (value, builder) -> {
+                builder.addType("scala.collection.Map");
+                scala.collection.Iterator<? extends scala.Tuple2<?, ?>> entries =
+                        ((scala.collection.Map<?, ?>) value).iterator();
+                return new MapFrame(builder.tab + 1) {
+                    @Override
+                    boolean nextEntry() {
+                        if (!entries.hasNext()) return false;
+                        scala.Tuple2<?, ?> entry = entries.next();
+                        entryKey = entry._1();
+                        entryValue = entry._2();
+                        return true;
+                    }
+                };
+            };
+        } else if (Object[].class.isAssignableFrom(c)) {
+            return (ToPyContainerConverter) (value, builder) -> {
+                builder.addType("Object[]");
+                return new ArrayFrame((Object[]) value, builder.tab + 1);
+            };
+        } else if (Iterable.class.isAssignableFrom(c)) {
+            return (ToPyContainerConverter) (value, builder) -> {
+                builder.addType("Iterable(" + value.getClass().getName() + ")");
+                return new IterableFrame(((Iterable<?>) value).iterator(), builder.tab + 1);
+            };
+        } else if (scala.Function0.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function0");
+                @SuppressWarnings("unchecked")
+                scala.Function0<Object> fn = (scala.Function0<Object>) value;
+                return toPyCFunction(args -> fn.apply());
+            };
+        } else if (scala.Function1.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function1");
+                @SuppressWarnings("unchecked")
+                scala.Function1<Object, Object> fn = (scala.Function1<Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0]));
+            };
+        } else if (scala.Function2.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function2");
+                @SuppressWarnings("unchecked")
+                scala.Function2<Object, Object, Object> fn = (scala.Function2<Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1]));
+            };
+        } else if (scala.Function3.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function3");
+                @SuppressWarnings("unchecked")
+                scala.Function3<Object, Object, Object, Object> fn = (scala.Function3<Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2]));
+            };
+        } else if (scala.Function4.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function4");
+                @SuppressWarnings("unchecked")
+                scala.Function4<Object, Object, Object, Object, Object> fn = (scala.Function4<Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3]));
+            };
+        } else if (scala.Function5.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function5");
+                @SuppressWarnings("unchecked")
+                scala.Function5<Object, Object, Object, Object, Object, Object> fn = (scala.Function5<Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4]));
+            };
+        } else if (scala.Function6.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function6");
+                @SuppressWarnings("unchecked")
+                scala.Function6<Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function6<Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5]));
+            };
+        } else if (scala.Function7.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function7");
+                @SuppressWarnings("unchecked")
+                scala.Function7<Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function7<Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6]));
+            };
+        } else if (scala.Function8.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function8");
+                @SuppressWarnings("unchecked")
+                scala.Function8<Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function8<Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7]));
+            };
+        } else if (scala.Function9.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function9");
+                @SuppressWarnings("unchecked")
+                scala.Function9<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function9<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8]));
+            };
+        } else if (scala.Function10.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function10");
+                @SuppressWarnings("unchecked")
+                scala.Function10<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function10<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9]));
+            };
+        } else if (scala.Function11.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function11");
+                @SuppressWarnings("unchecked")
+                scala.Function11<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function11<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10]));
+            };
+        } else if (scala.Function12.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function12");
+                @SuppressWarnings("unchecked")
+                scala.Function12<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function12<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11]));
+            };
+        } else if (scala.Function13.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function13");
+                @SuppressWarnings("unchecked")
+                scala.Function13<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function13<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12]));
+            };
+        } else if (scala.Function14.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function14");
+                @SuppressWarnings("unchecked")
+                scala.Function14<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function14<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13]));
+            };
+        } else if (scala.Function15.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function15");
+                @SuppressWarnings("unchecked")
+                scala.Function15<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function15<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14]));
+            };
+        } else if (scala.Function16.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function16");
+                @SuppressWarnings("unchecked")
+                scala.Function16<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function16<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15]));
+            };
+        } else if (scala.Function17.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function17");
+                @SuppressWarnings("unchecked")
+                scala.Function17<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function17<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15], args[16]));
+            };
+        } else if (scala.Function18.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function18");
+                @SuppressWarnings("unchecked")
+                scala.Function18<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function18<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15], args[16], args[17]));
+            };
+        } else if (scala.Function19.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function19");
+                @SuppressWarnings("unchecked")
+                scala.Function19<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function19<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15], args[16], args[17], args[18]));
+            };
+        } else if (scala.Function20.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function20");
+                @SuppressWarnings("unchecked")
+                scala.Function20<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function20<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15], args[16], args[17], args[18], args[19]));
+            };
+        } else if (scala.Function21.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function21");
+                @SuppressWarnings("unchecked")
+                scala.Function21<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function21<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15], args[16], args[17], args[18], args[19], args[20]));
+            };
+        } else if (scala.Function22.class.isAssignableFrom(c)) {
+            return (value, builder) -> {
+                builder.addType("scala.Function22");
+                @SuppressWarnings("unchecked")
+                scala.Function22<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function22<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
+                return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15], args[16], args[17], args[18], args[19], args[20], args[21]));
+            };
+        }
+        return (value, builder) -> {
+            builder.addType(value.getClass().getName() + "  <- Unsupported");
+            throw new PythonException("Cannot convert the Java object to a Python object.\n" +
+                    "\nValue type tree\n" + builder.toString() +
+                    "\nvalue = " + value);
+        };
+    }
+
+    /**
+     * The caller must hold the GIL.
+     *
+     * @return The view, or null if the ndarray should be copied.
+     */
+    private static NpNdarrayView toNdarrayView(PyObject obj, PyArrayObject aryObj, long[] shape, long[] strides,
+                                               TypeTreeBuilder builder) {
+        long threshold = ndarrayViewThreshold;
+        if (threshold == Long.MAX_VALUE) return null;
 
-            @SuppressWarnings("unchecked")
-            Iterable<Object> iter = (Iterable<Object>) value;
-            PyObject obj = PyList_New(0);
-            iter.forEach(v -> PyList_Append(obj, toPyObject(v, builder)));
+        int itemsize = (int) PyArray_ITEMSIZE(aryObj);
+        NpDtype dtype = NpDtype.of(aryObj.descr().type(), itemsize);
+        if (dtype == null) return null;
+        if (PyArray_Size(aryObj) * itemsize < threshold) return null;
+        if ((PyArray_FLAGS(aryObj) & NPY_ARRAY_ALIGNED) == 0) return null;
 
-            builder.tab--;
-            return obj;
-        } else if (value instanceof scala.Function0) {
-            builder.addType("scala.Function0");
-            @SuppressWarnings("unchecked")
-            scala.Function0<Object> fn = (scala.Function0<Object>) value;
-            return toPyCFunction(args -> fn.apply());
-        } else if (value instanceof scala.Function1) {
-            builder.addType("scala.Function1");
-            @SuppressWarnings("unchecked")
-            scala.Function1<Object, Object> fn = (scala.Function1<Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0]));
-        } else if (value instanceof scala.Function2) {
-            builder.addType("scala.Function2");
-            @SuppressWarnings("unchecked")
-            scala.Function2<Object, Object, Object> fn = (scala.Function2<Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1]));
-        } else if (value instanceof scala.Function3) {
-            builder.addType("scala.Function3");
-            @SuppressWarnings("unchecked")
-            scala.Function3<Object, Object, Object, Object> fn = (scala.Function3<Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2]));
-        } else if (value instanceof scala.Function4) {
-            builder.addType("scala.Function4");
-            @SuppressWarnings("unchecked")
-            scala.Function4<Object, Object, Object, Object, Object> fn = (scala.Function4<Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3]));
-        } else if (value instanceof scala.Function5) {
-            builder.addType("scala.Function5");
-            @SuppressWarnings("unchecked")
-            scala.Function5<Object, Object, Object, Object, Object, Object> fn = (scala.Function5<Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4]));
-        } else if (value instanceof scala.Function6) {
-            builder.addType("scala.Function6");
-            @SuppressWarnings("unchecked")
-            scala.Function6<Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function6<Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5]));
-        } else if (value instanceof scala.Function7) {
-            builder.addType("scala.Function7");
-            @SuppressWarnings("unchecked")
-            scala.Function7<Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function7<Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6]));
-        } else if (value instanceof scala.Function8) {
-            builder.addType("scala.Function8");
-            @SuppressWarnings("unchecked")
-            scala.Function8<Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function8<Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7]));
-        } else if (value instanceof scala.Function9) {
-            builder.addType("scala.Function9");
-            @SuppressWarnings("unchecked")
-            scala.Function9<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function9<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8]));
-        } else if (value instanceof scala.Function10) {
-            builder.addType("scala.Function10");
-            @SuppressWarnings("unchecked")
-            scala.Function10<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function10<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9]));
-        } else if (value instanceof scala.Function11) {
-            builder.addType("scala.Function11");
-            @SuppressWarnings("unchecked")
-            scala.Function11<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function11<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10]));
-        } else if (value instanceof scala.Function12) {
-            builder.addType("scala.Function12");
-            @SuppressWarnings("unchecked")
-            scala.Function12<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function12<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11]));
-        } else if (value instanceof scala.Function13) {
-            builder.addType("scala.Function13");
-            @SuppressWarnings("unchecked")
-            scala.Function13<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function13<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12]));
-        } else if (value instanceof scala.Function14) {
-            builder.addType("scala.Function14");
-            @SuppressWarnings("unchecked")
-            scala.Function14<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function14<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13]));
-        } else if (value instanceof scala.Function15) {
-            builder.addType("scala.Function15");
-            @SuppressWarnings("unchecked")
-            scala.Function15<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function15<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14]));
-        } else if (value instanceof scala.Function16) {
-            builder.addType("scala.Function16");
-            @SuppressWarnings("unchecked")
-            scala.Function16<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function16<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15]));
-        } else if (value instanceof scala.Function17) {
-            builder.addType("scala.Function17");
-            @SuppressWarnings("unchecked")
-            scala.Function17<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function17<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15], args[16]));
-        } else if (value instanceof scala.Function18) {
-            builder.addType("scala.Function18");
-            @SuppressWarnings("unchecked")
-            scala.Function18<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function18<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15], args[16], args[17]));
-        } else if (value instanceof scala.Function19) {
-            builder.addType("scala.Function19");
-            @SuppressWarnings("unchecked")
-            scala.Function19<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function19<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15], args[16], args[17], args[18]));
-        } else if (value instanceof scala.Function20) {
-            builder.addType("scala.Function20");
-            @SuppressWarnings("unchecked")
-            scala.Function20<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function20<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15], args[16], args[17], args[18], args[19]));
-        } else if (value instanceof scala.Function21) {
-            builder.addType("scala.Function21");
-            @SuppressWarnings("unchecked")
-            scala.Function21<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function21<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15], args[16], args[17], args[18], args[19], args[20]));
-        } else if (value instanceof scala.Function22) {
-            builder.addType("scala.Function22");
-            @SuppressWarnings("unchecked")
-            scala.Function22<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object> fn = (scala.Function22<Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object, Object>) value;
-            return toPyCFunction(args -> fn.apply(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7], args[8], args[9], args[10], args[11], args[12], args[13], args[14], args[15], args[16], args[17], args[18], args[19], args[20], args[21]));
-        }
-        builder.addType(value.getClass().getName() + "  <- Unsupported");
-        throw new PythonException("Cannot convert the Java object to a Python object.\n" +
-                "\nValue type tree\n" + builder.toString() +
-                "\nvalue = " + value);
+        long byteSize = itemsize;
+        for (int i = 0; i < shape.length; i++) {
+            if (strides[i] < 0 || strides[i] % itemsize != 0) return null;
+            if (shape[i] == 0) {
+                byteSize = 0;
+                break;
+            }
+            byteSize += (shape[i] - 1) * strides[i];
+        }
+
+        builder.addType("np.ndarray(dtype=" + dtype.pythonName() + ") view");
+        boolean writeable = (PyArray_FLAGS(aryObj) & NPY_ARRAY_WRITEABLE) != 0;
+        Py_IncRef(obj);
+        return new NpNdarrayView(new PyRef(obj), PyArray_BYTES(aryObj), byteSize, dtype,
+                toIntArray(shape), toIntArrayDiv(strides, itemsize), writeable);
+    }
+
+    /**
+     * Allocate np.ndarray owned by numpy and copy the Java array into it.
+     * The memory is freed as soon as Python releases the ndarray, independently of the Java GC.
+     *
+     * @param typeNum The NPY_TYPES of the elements.
+     * @param length  The length of the Java array.
+     * @param ndary   The shape and the strides, or null for a 1-D array.
+     * @param copy    Copy the Java array to the given pointer.
+     */
+    private static PyObject newArray(int typeNum, int length, NpNdarray ndary, Consumer<Pointer> copy) {
+        return newArray(PyArray_DescrFromType(typeNum), length, ndary, copy);
+    }
+
+    /**
+     * The reference of descr is stolen. See {@link #newArray(int, int, NpNdarray, Consumer)}.
+     * <p>
+     * If the shape and the strides are not a plain 1-D array, the Java array is copied into a 1-D base array,
+     * and a view of it with the shape and the strides is returned.
+     */
+    private static PyObject newArray(PyArray_Descr descr, int length, NpNdarray ndary, Consumer<Pointer> copy) {
+        boolean plain = ndary == null || (ndary.ndim() == 1 && ndary.strides[0] == 1 && ndary.shape[0] == length);
+        if (!plain) Py_IncRef(new PyObject(descr));
+
+        SizeTPointer baseDims = new SizeTPointer(1).put(length);
+        PyObject base = PyArray_NewFromDescr(arrayType, descr, 1, baseDims, null, null, 0, null);
+        if (base == null) {
+            if (!plain) Py_DecRef(new PyObject(descr));
+            throw new PythonException("PyArray_NewFromDescr() failed");
+        }
+        Pointer data = PyArray_BYTES(new PyArrayObject(base));
+        copy.accept(data);
+        if (plain) return base;
+
+        SizeTPointer dims = new SizeTPointer(toLongArray(ndary.shape));
+        SizeTPointer strides = new SizeTPointer(ndary.stridesInBytes());
+        PyObject view = PyArray_NewFromDescr(arrayType, descr, ndary.ndim(), dims, strides, data, NPY_ARRAY_CARRAY, null);
+        if (view == null) {
+            Py_DecRef(base);
+            throw new PythonException("PyArray_NewFromDescr() failed");
+        }
+        if (PyArray_SetBaseObject(new PyArrayObject(view), base) != 0) {
+            Py_DecRef(view);
+            throw new PythonException("PyArray_SetBaseObject() failed");
+        }
+        return view;
+    }
+
+    private static PyArray_Descr datetime64nsDescr() {
+        PyArray_Descr descr = PyArray_DescrNewFromType(NPY_DATETIME);
+        new PyArray_DatetimeDTypeMetaData(descr.c_metadata()).meta().base(NPY_FR_ns).num(1);
+        return descr;
+    }
+
+    private static long[] toEpochNanos(Instant[] ary) {
+        return Arrays.stream(ary).mapToLong(instant ->
+                Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1000_000_000L), instant.getNano())
+        ).toArray();
+    }
+
+    /**
+     * Wrap the Java memory in np.ndarray without copying.
+     * The base object of the ndarray is a capsule, and its destructor drops the Java owner from javaOwners.
+     */
+    private static PyObject wrapJavaMemory(NpNdarrayView view) {
+        SizeTPointer dims = new SizeTPointer(view.ndim());
+        dims.put(toLongArray(view.shape));
+        SizeTPointer strides = new SizeTPointer(view.ndim());
+        strides.put(view.stridesInBytes());
+        int flags = view.isWriteable() ? NPY_ARRAY_CARRAY : NPY_ARRAY_CARRAY_RO;
+
+        PyObject ary = PyArray_New(arrayType, view.ndim(), dims, view.dtype().typeNum, strides,
+                view.pointer(), 0, flags, null);
+        if (ary == null) throw new PythonException("PyArray_New() failed");
+
+        long key = javaOwnerKey++;
+        javaOwners.put(key, view.owner());
+        PyObject capsule = PyCapsule_New(addressPointer(key), JAVA_OWNER_CAPSULE_NAME, javaOwnerDestructor);
+        if (capsule == null) {
+            javaOwners.remove(key);
+            Py_DecRef(ary);
+            throw new PythonException("PyCapsule_New() failed");
+        }
+        if (PyArray_SetBaseObject(new PyArrayObject(ary), capsule) != 0) {
+            Py_DecRef(ary);
+            throw new PythonException("PyArray_SetBaseObject() failed");
+        }
+        return ary;
+    }
+
+    /**
+     * numpy and PyRef belong to the main interpreter. They must not be used in sub-interpreters.
+     */
+    private static void requireMainInterpreter(TypeTreeBuilder builder) {
+        if (PyInterpreterState_Get().address() != mainInterpreter.address()) {
+            throw new PythonException("Cannot convert the Java object to a Python object in a sub-interpreter.\n" +
+                    "numpy arrays, numpy scalars, and PyRef are available only in the main interpreter.\n" +
+                    "\nValue type tree\n" + builder.toString());
+        }
     }
 
     private static PyObject toPyCFunction(Function<Object[], Object> fn) {
@@ -948,7 +3113,8 @@ public class Python {
                 ml_name(new BytePointer("org.bytedeco.embeddedpython")).
                 ml_meth(pyFunc).
                 ml_flags(METH_VARARGS);
-        return PyCFunction_NewEx(methodDef, null, mainModule);
+        boolean main = PyInterpreterState_Get().address() == mainInterpreter.address();
+        return PyCFunction_NewEx(methodDef, null, main ? mainModule : null);
     }
 
     private static long[] toLongArray(int[] intAry) {
@@ -0,0 +1,174 @@
+package org.bytedeco.embeddedpython;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous front end of {@link Python} returned by {@link Python#async()}.
+ * <p>
+ * The operations are queued to a dedicated Python thread, and the caller does not wait for the GIL.
+ * The consecutive queued operations run back-to-back in one GIL hold.
+ * The futures are completed after the GIL is released,
+ * so the dependent actions of the futures do not hold the GIL.
+ * <p>
+ * The queue is bounded. If the queue is full, the returned future fails with {@link RejectedExecutionException}.
+ * <p>
+ * The operations run in the queued order, so an operation can use the result of the previous one.
+ *
+ * <pre>{@code
+ * Python.async().put("a", 1.5);
+ * CompletableFuture<Double> v = Python.async().eval("a * 2");
+ * }</pre>
+ */
+public class PythonAsync {
+    private final int capacity;
+    private final BlockingQueue<Task<?>> queue;
+
+    PythonAsync(int capacity) {
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        Thread thread = new Thread(this::run, "PythonAsync");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * {@link Python#eval(String)} on the Python thread.
+     *
+     * @param src Python code. This must be a single line code.
+     * @param <T> The Java class after conversion from Python.
+     * @return The future of the Java object converted from the Python object.
+     */
+    public <T> CompletableFuture<T> eval(String src) {
+        return submit(() -> Python.evalImpl(src, new TypeTreeBuilder(1)));
+    }
+
+    /**
+     * {@link Python#exec(String)} on the Python thread.
+     *
+     * @param src Python code. This can be multiple lines code.
+     * @return The future completed when the code is executed.
+     */
+    public CompletableFuture<Void> exec(String src) {
+        return submit(() -> {
+            Python.execImpl(src);
+            return null;
+        });
+    }
+
+    /**
+     * {@link Python#get(String)} on the Python thread.
+     *
+     * @param name The variable name
+     * @param <T>  The Java class after conversion from Python.
+     * @return The future of the Java object converted from the Python object.
+     * It fails with {@link NoSuchElementException} if the variable does not exists.
+     */
+    public <T> CompletableFuture<T> get(String name) {
+        return submit(() -> Python.getImpl(name, new TypeTreeBuilder(1)));
+    }
+
+    /**
+     * {@link Python#put(String, Object)} on the Python thread.
+     * <p>
+     * The value is converted on the Python thread, so don't modify it until the future is completed.
+     *
+     * @param name  The variable name
+     * @param value The value to put.
+     * @return The future completed when the variable is set.
+     */
+    public CompletableFuture<Void> put(String name, Object value) {
+        return submit(() -> {
+            Python.putImpl(name, value, new TypeTreeBuilder(1));
+            return null;
+        });
+    }
+
+    /**
+     * {@link Python#call(String, Object...)} on the Python thread.
+     *
+     * @param name The dotted name of the callable.
+     * @param args The arguments. They are converted on the Python thread.
+     * @param <T>  The Java class after conversion from Python.
+     * @return The future of the Java object converted from the return value.
+     */
+    public <T> CompletableFuture<T> call(String name, Object... args) {
+        return submit(() -> Python.callImpl(name, args));
+    }
+
+    /**
+     * @return The maximum number of the queued operations.
+     */
+    public int getQueueCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of the queued operations waiting for the Python thread.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> fn) {
+        Task<T> task = new Task<>(fn);
+        if (!queue.offer(task)) {
+            task.future.completeExceptionally(
+                    new RejectedExecutionException("The queue of PythonAsync is full. capacity = " + capacity));
+        }
+        return task.future;
+    }
+
+    private void run() {
+        ArrayList<Task<?>> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, capacity - 1);
+
+            int gil = GIL.ensure();
+            try {
+                batch.forEach(Task::run);
+            } finally {
+                GIL.release(gil);
+            }
+            batch.forEach(Task::complete);
+            batch.clear();
+        }
+    }
+
+    private static class Task<T> {
+        final Supplier<T> fn;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        Throwable error;
+
+        Task(Supplier<T> fn) {
+            this.fn = fn;
+        }
+
+        void run() {
+            try {
+                result = fn.get();
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+
+        void complete() {
+            if (error == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package org.bytedeco.embeddedpython;
+
+import org.bytedeco.cpython.PyInterpreterConfig;
+import org.bytedeco.cpython.PyObject;
+import org.bytedeco.cpython.PyStatus;
+import org.bytedeco.cpython.PyThreadState;
+import org.bytedeco.javacpp.PointerPointer;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.bytedeco.cpython.global.python.*;
+
+/**
+ * Python sub-interpreter with its own GIL (PEP 684).
+ * <p>
+ * Each sub-interpreter has its own modules, global variables, and GIL,
+ * so the Python code in different sub-interpreters runs in parallel on multiple cores.
+ * A sub-interpreter runs on its own dedicated thread. The methods of this class can be called from any thread,
+ * and the calls are executed one by one on the dedicated thread.
+ * <p>
+ * Only the extension modules supporting per-interpreter GIL can be imported.
+ * The pure Python modules and most of the standard library work, but numpy does not.
+ * Therefore, numpy arrays, numpy scalars, and {@link PyRef} cannot be converted in a sub-interpreter.
+ * Don't call the methods of {@link Python} from the functions called by the Python code in a sub-interpreter.
+ * <p>
+ * Don't forget to call {@link #close()}.
+ *
+ * @see PythonInterpreterPool
+ */
+public class PythonInterpreter implements AutoCloseable {
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private final CodeCache evalCodeCache = new CodeCache(256);
+    private final CodeCache execCodeCache = new CodeCache(256);
+    private PyThreadState mainThreadState;
+    private PyThreadState threadState;
+    private PyObject globals;
+
+    /**
+     * Create a new sub-interpreter and its thread.
+     *
+     * @throws PythonException If the sub-interpreter cannot be created.
+     */
+    public PythonInterpreter() {
+        Python.ensureInitialized();
+        String threadName = "PythonInterpreter-" + counter.incrementAndGet();
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            run(this::init, false);
+        } catch (RuntimeException e) {
+            executor.shutdown();
+            throw e;
+        }
+    }
+
+    private Void init() {
+        // Py_NewInterpreterFromConfig() needs the GIL of the main interpreter.
+        // It is released when the new interpreter gets its own GIL.
+        mainThreadState = PyThreadState_New(PyInterpreterState_Main());
+        PyEval_RestoreThread(mainThreadState);
+
+        PyInterpreterConfig config = new PyInterpreterConfig();
+        config.use_main_obmalloc(0);
+        config.allow_fork(0);
+        config.allow_exec(0);
+        config.allow_threads(1);
+        config.allow_daemon_threads(0);
+        config.check_multi_interp_extensions(1);
+        config.gil(PyInterpreterConfig_OWN_GIL);
+
+        PointerPointer<PyThreadState> threadStatePtr = new PointerPointer<>(1);
+        PyStatus status = Py_NewInterpreterFromConfig(threadStatePtr, config);
+        if (PyStatus_Exception(status) != 0) {
+            PyThreadState_Clear(mainThreadState);
+            PyThreadState_DeleteCurrent();
+            String msg = status.err_msg() == null ? "" : status.err_msg().getString();
+            throw new PythonException("Py_NewInterpreterFromConfig() failed. " + msg);
+        }
+        threadState = threadStatePtr.get(PyThreadState.class, 0);
+        globals = PyModule_GetDict(PyImport_AddModule("__main__"));
+
+        PyEval_SaveThread();
+        return null;
+    }
+
+    /**
+     * Python built-in eval() in this sub-interpreter.
+     *
+     * @param src Python code. This must be a single line code.
+     * @param <T> The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     * @see Python#eval(String)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T eval(String src) {
+        return run(() -> {
+            PyObject co = Python.compile(evalCodeCache, src, Py_eval_input);
+            try {
+                PyObject obj = Python.evalCode(co, globals, globals, src);
+                try {
+                    TypeTreeBuilder builder = new TypeTreeBuilder(1);
+                    return (T) Python.toJava(obj, builder);
+                } finally {
+                    Py_DecRef(obj);
+                }
+            } finally {
+                Py_DecRef(co);
+            }
+        }, true);
+    }
+
+    /**
+     * Python built-in exec() in this sub-interpreter.
+     *
+     * @param src Python code. This can be multiple lines code.
+     * @see Python#exec(String)
+     */
+    public void exec(String src) {
+        run(() -> {
+            PyObject co = Python.compile(execCodeCache, src, Py_file_input);
+            try {
+                Py_DecRef(Python.evalCode(co, globals, globals, src));
+            } finally {
+                Py_DecRef(co);
+            }
+            return null;
+        }, true);
+    }
+
+    /**
+     * Get the global Python variable of this sub-interpreter and convert it to a Java object.
+     *
+     * @param name The variable name
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     * @throws PythonException        If the value cannot convert to a Java object.
+     * @throws NoSuchElementException If the variable does not exists.
+     * @see Python#get(String)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name) {
+        return run(() -> {
+            TypeTreeBuilder builder = new TypeTreeBuilder(1);
+            return (T) Python.toJava(Python.getPyObject(globals, name), builder);
+        }, true);
+    }
+
+    /**
+     * Convert the Java object and set it to the global Python variable of this sub-interpreter.
+     *
+     * @param name  The variable name
+     * @param value The value to put.
+     * @throws PythonException If the value cannot convert to a Python object.
+     * @see Python#put(String, Object)
+     */
+    public void put(String name, Object value) {
+        run(() -> {
+            TypeTreeBuilder builder = new TypeTreeBuilder(1);
+            Python.putPyObject(globals, name, Python.toPyObject(value, builder));
+            return null;
+        }, true);
+    }
+
+    /**
+     * Call the Python function in this sub-interpreter without compiling any Python code.
+     *
+     * @param name The dotted name of the callable.
+     * @param args The arguments. They are converted like {@link #put(String, Object)}.
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the return value.
+     * @throws PythonException        If the callable throws an error or the values cannot be converted.
+     * @throws NoSuchElementException If the name cannot be resolved.
+     * @see Python#call(String, Object...)
+     */
+    public <T> T call(String name, Object... args) {
+        return run(() -> {
+            PyObject callable = Python.resolve(globals, name);
+            try {
+                return Python.toJavaAndDecRef(Python.vectorcall(callable, args, name));
+            } finally {
+                Py_DecRef(callable);
+            }
+        }, true);
+    }
+
+    /**
+     * Destroy the sub-interpreter and stop its thread.
+     */
+    @Override
+    public void close() {
+        if (executor.isShutdown()) return;
+        try {
+            run(() -> {
+                PyEval_RestoreThread(threadState);
+                evalCodeCache.clear();
+                execCodeCache.clear();
+                Py_EndInterpreter(threadState);
+                threadState = null;
+                globals = null;
+
+                PyEval_RestoreThread(mainThreadState);
+                PyThreadState_Clear(mainThreadState);
+                PyThreadState_DeleteCurrent();
+                mainThreadState = null;
+                return null;
+            }, false);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return true if {@link #close()} is already called.
+     */
+    public boolean isClosed() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * Run the task on the thread of this sub-interpreter and wait for it.
+     *
+     * @param withGIL If true, the task runs holding the GIL of this sub-interpreter.
+     */
+    private <T> T run(Callable<T> task, boolean withGIL) {
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                if (!withGIL) return task.call();
+                if (threadState == null) throw new IllegalStateException("The PythonInterpreter is already closed.");
+                PyEval_RestoreThread(threadState);
+                try {
+                    return task.call();
+                } finally {
+                    PyEval_SaveThread();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("The PythonInterpreter is already closed.", e);
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new PythonException("The PythonInterpreter task failed.", cause);
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.bytedeco.embeddedpython;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Pool of {@link PythonInterpreter}s to run the Python code in parallel on multiple cores.
+ * <p>
+ * Each task is routed to an idle sub-interpreter.
+ * The setup code like imports and function definitions should be run on all the sub-interpreters
+ * by {@link #execAll(String)} and {@link #putAll(String, Object)}.
+ *
+ * <pre>{@code
+ * try (PythonInterpreterPool pool = new PythonInterpreterPool(4)) {
+ *     pool.execAll("def f(x): return sum(i * i for i in range(x))");
+ *     long v = pool.call("f", 1000000);
+ * }
+ * }</pre>
+ * <p>
+ * The same limitations as {@link PythonInterpreter} apply. numpy cannot be used in the sub-interpreters.
+ * <p>
+ * Don't forget to call {@link #close()}.
+ */
+public class PythonInterpreterPool implements AutoCloseable {
+    private final List<PythonInterpreter> interpreters;
+    private final BlockingQueue<PythonInterpreter> idle;
+
+    /**
+     * Create the sub-interpreters.
+     *
+     * @param size The number of the sub-interpreters.
+     * @throws PythonException If a sub-interpreter cannot be created.
+     */
+    public PythonInterpreterPool(int size) {
+        if (size <= 0) throw new IllegalArgumentException("size = " + size);
+        List<PythonInterpreter> list = new ArrayList<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                list.add(new PythonInterpreter());
+            }
+        } catch (RuntimeException e) {
+            list.forEach(PythonInterpreter::close);
+            throw e;
+        }
+        interpreters = Collections.unmodifiableList(list);
+        idle = new ArrayBlockingQueue<>(size, false, list);
+    }
+
+    /**
+     * @return The number of the sub-interpreters.
+     */
+    public int size() {
+        return interpreters.size();
+    }
+
+    /**
+     * Run the task with an idle sub-interpreter. All the calls inside the task go to the same sub-interpreter.
+     * If all the sub-interpreters are busy, this waits for one of them.
+     *
+     * @param task The task.
+     * @param <T>  The return type of the task.
+     * @return The return value of the task.
+     */
+    public <T> T execute(Function<PythonInterpreter, T> task) {
+        PythonInterpreter interpreter = take();
+        try {
+            return task.apply(interpreter);
+        } finally {
+            idle.add(interpreter);
+        }
+    }
+
+    /**
+     * {@link PythonInterpreter#eval(String)} on an idle sub-interpreter.
+     *
+     * @param src Python code. This must be a single line code.
+     * @param <T> The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     */
+    public <T> T eval(String src) {
+        return execute(interpreter -> interpreter.eval(src));
+    }
+
+    /**
+     * {@link PythonInterpreter#call(String, Object...)} on an idle sub-interpreter.
+     *
+     * @param name The dotted name of the callable.
+     * @param args The arguments.
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the return value.
+     */
+    public <T> T call(String name, Object... args) {
+        return execute(interpreter -> interpreter.call(name, args));
+    }
+
+    /**
+     * {@link PythonInterpreter#exec(String)} on all the sub-interpreters.
+     *
+     * @param src Python code. This can be multiple lines code.
+     */
+    public void execAll(String src) {
+        interpreters.forEach(interpreter -> interpreter.exec(src));
+    }
+
+    /**
+     * {@link PythonInterpreter#put(String, Object)} on all the sub-interpreters.
+     *
+     * @param name  The variable name
+     * @param value The value to put.
+     */
+    public void putAll(String name, Object value) {
+        interpreters.forEach(interpreter -> interpreter.put(name, value));
+    }
+
+    /**
+     * Close all the sub-interpreters.
+     */
+    @Override
+    public void close() {
+        interpreters.forEach(PythonInterpreter::close);
+    }
+
+    private PythonInterpreter take() {
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PythonException("Interrupted while waiting for an idle PythonInterpreter.", e);
+        }
+    }
+}
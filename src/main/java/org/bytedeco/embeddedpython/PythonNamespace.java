@@ -0,0 +1,136 @@
+package org.bytedeco.embeddedpython;
+
+import org.bytedeco.cpython.PyObject;
+
+import java.util.NoSuchElementException;
+
+import static org.bytedeco.cpython.global.python.*;
+
+/**
+ * Global variables separated from the __main__ module used by {@link Python}.
+ * <p>
+ * Each namespace has its own globals dict, so the same variable names can be used in independent namespaces.
+ * The modules and the built-ins are shared with the main interpreter.
+ * {@link #close()} drops all the variables at once, and the Python objects are released
+ * unless they are referenced from somewhere else.
+ *
+ * <pre>{@code
+ * try (PythonNamespace ns = new PythonNamespace()) {
+ *     ns.put("a", new double[]{1, 2, 3});
+ *     ns.exec("import numpy as np; v = np.sum(a)");
+ *     double v = ns.get("v");
+ * }
+ * }</pre>
+ * <p>
+ * This class is thread-safe. Don't forget to call {@link #close()}.
+ */
+public class PythonNamespace implements AutoCloseable {
+    private volatile PyObject globals;
+
+    /**
+     * Create an empty namespace.
+     */
+    public PythonNamespace() {
+        Python.withGIL(() -> {
+            globals = PyDict_New();
+            try {
+                if (PyDict_SetItemString(globals, "__builtins__", PyEval_GetBuiltins()) != 0) {
+                    throw new PythonException("PyDict_SetItemString() failed");
+                }
+                Python.putPyObject(globals, "__name__", PyUnicode_FromString("__main__"));
+            } catch (RuntimeException e) {
+                Py_DecRef(globals);
+                globals = null;
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Python built-in eval() with the globals of this namespace.
+     *
+     * @param src Python code. This must be a single line code.
+     * @param <T> The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     * @see Python#eval(String)
+     */
+    public <T> T eval(String src) {
+        return Python.withGIL(() -> Python.evalImpl(globals(), src, new TypeTreeBuilder(1)));
+    }
+
+    /**
+     * Python built-in exec() with the globals of this namespace.
+     *
+     * @param src Python code. This can be multiple lines code.
+     * @see Python#exec(String)
+     */
+    public void exec(String src) {
+        Python.withGIL(() -> Python.execImpl(globals(), src));
+    }
+
+    /**
+     * Get the variable of this namespace and convert it to a Java object.
+     *
+     * @param name The variable name
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     * @throws NoSuchElementException If the variable does not exists.
+     * @see Python#get(String)
+     */
+    public <T> T get(String name) {
+        return Python.withGIL(() -> Python.getImpl(globals(), name, new TypeTreeBuilder(1)));
+    }
+
+    /**
+     * Convert the Java object and set it to the variable of this namespace.
+     *
+     * @param name  The variable name
+     * @param value The value to put.
+     * @see Python#put(String, Object)
+     */
+    public void put(String name, Object value) {
+        Python.withGIL(() -> Python.putImpl(globals(), name, value, new TypeTreeBuilder(1)));
+    }
+
+    /**
+     * Call the Python function. The first component of the name is resolved in this namespace.
+     *
+     * @param name The dotted name of the callable.
+     * @param args The arguments.
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the return value.
+     * @see Python#call(String, Object...)
+     */
+    public <T> T call(String name, Object... args) {
+        return Python.withGIL(() -> Python.callImpl(globals(), name, args));
+    }
+
+    /**
+     * @return true if {@link #close()} is already called.
+     */
+    public boolean isClosed() {
+        return globals == null;
+    }
+
+    /**
+     * Drop all the variables of this namespace.
+     */
+    @Override
+    public void close() {
+        Python.withGIL(() -> {
+            if (globals == null) return;
+            // Clear the dict first because functions defined in this namespace reference it.
+            PyDict_Clear(globals);
+            Py_DecRef(globals);
+            globals = null;
+        });
+    }
+
+    /**
+     * The caller must hold the GIL.
+     */
+    private PyObject globals() {
+        if (globals == null) throw new IllegalStateException("The PythonNamespace is already closed.");
+        return globals;
+    }
+}
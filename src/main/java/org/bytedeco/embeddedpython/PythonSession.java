@@ -0,0 +1,115 @@
+package org.bytedeco.embeddedpython;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Operations run by {@link Python#batch(java.util.function.Function)} under a single GIL acquisition.
+ * <p>
+ * A session can be used only inside the batch block and only by the thread running it.
+ */
+public class PythonSession {
+    private final Thread thread = Thread.currentThread();
+    private final TypeTreeBuilder builder = new TypeTreeBuilder(1);
+    private boolean closed;
+
+    PythonSession() {
+    }
+
+    /**
+     * Python built-in eval().
+     *
+     * @param src Python code. This must be a single line code.
+     * @param <T> The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     * @see Python#eval(String)
+     */
+    public <T> T eval(String src) {
+        check();
+        return Python.evalImpl(src, builder());
+    }
+
+    /**
+     * Python built-in exec().
+     *
+     * @param src Python code. This can be multiple lines code.
+     * @see Python#exec(String)
+     */
+    public void exec(String src) {
+        check();
+        Python.execImpl(src);
+    }
+
+    /**
+     * Get the global Python variable and convert it to a Java object.
+     *
+     * @param name The variable name
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     * @throws NoSuchElementException If the variable does not exists.
+     * @see Python#get(String)
+     */
+    public <T> T get(String name) {
+        check();
+        return Python.getImpl(name, builder());
+    }
+
+    /**
+     * Convert the Java object and set it to the global Python variable.
+     *
+     * @param name  The variable name
+     * @param value The value to put.
+     * @see Python#put(String, Object)
+     */
+    public void put(String name, Object value) {
+        check();
+        Python.putImpl(name, value, builder());
+    }
+
+    /**
+     * Convert the Java objects and set them to the global Python variables.
+     * <p>
+     * The map is converted to a dict in one conversion and merged into the globals by a single dict update,
+     * so the values shared between the entries are converted once.
+     * If a value cannot be converted, no variable is set.
+     *
+     * @param values The variable names and the values to put.
+     * @see Python#put(String, Object)
+     */
+    public void putAll(Map<String, ?> values) {
+        check();
+        Python.putAllImpl(values, builder());
+    }
+
+    /**
+     * Call the Python function without compiling any Python code.
+     *
+     * @param name The dotted name of the callable.
+     * @param args The arguments.
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the return value.
+     * @see Python#call(String, Object...)
+     */
+    public <T> T call(String name, Object... args) {
+        check();
+        return Python.callImpl(name, args);
+    }
+
+    void close() {
+        closed = true;
+    }
+
+    private void check() {
+        if (closed) throw new IllegalStateException("The PythonSession is used outside of Python.batch().");
+        if (Thread.currentThread() != thread) {
+            throw new IllegalStateException("The PythonSession is used by another thread.");
+        }
+    }
+
+    private TypeTreeBuilder builder() {
+        // A PyConverter can use this session while the shared builder converts a value.
+        if (builder.nesting > 0) return new TypeTreeBuilder(1);
+        builder.reset(1);
+        return builder;
+    }
+}
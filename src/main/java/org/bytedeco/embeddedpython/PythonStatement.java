@@ -0,0 +1,72 @@
+package org.bytedeco.embeddedpython;
+
+import org.bytedeco.cpython.PyObject;
+
+import java.util.Arrays;
+
+/**
+ * Prepared Python statement created by {@link Python#prepare(String, String...)}.
+ * <p>
+ * The Python code is compiled only once.
+ * The arguments are bound to the parameter names in a new local variables dict on each execution,
+ * so the global variables are not modified by the arguments.
+ * <p>
+ * Don't forget to call {@link #close()}.
+ */
+public class PythonStatement implements AutoCloseable {
+    final String src;
+    final String[] paramNames;
+    final boolean expression;
+    PyObject code;
+    PyObject[] paramKeys;
+
+    PythonStatement(String src, String[] paramNames, boolean expression, PyObject code, PyObject[] paramKeys) {
+        this.src = src;
+        this.paramNames = paramNames;
+        this.expression = expression;
+        this.code = code;
+        this.paramKeys = paramKeys;
+    }
+
+    /**
+     * Execute the statement.
+     *
+     * @param args The values of the parameters in the same order as the parameter names.
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the value of the expression,
+     * or null if the source code is not a single expression.
+     * @throws PythonException          If an error is thrown inside Python or the value cannot be converted.
+     * @throws IllegalArgumentException If the number of the arguments is different from the parameters.
+     * @throws IllegalStateException    If this statement is already closed.
+     */
+    public <T> T execute(Object... args) {
+        if (args.length != paramNames.length) {
+            throw new IllegalArgumentException(
+                    "paramNames.length = " + paramNames.length + ", args.length = " + args.length);
+        }
+        return Python.execute(this, args);
+    }
+
+    /**
+     * @return true if the source code is a single expression and {@link #execute(Object...)} returns its value.
+     */
+    public boolean isExpression() {
+        return expression;
+    }
+
+    /**
+     * Release the compiled code.
+     */
+    @Override
+    public void close() {
+        Python.close(this);
+    }
+
+    @Override
+    public String toString() {
+        return "PythonStatement{" +
+                "src='" + src + '\'' +
+                ", paramNames=" + Arrays.toString(paramNames) +
+                '}';
+    }
+}
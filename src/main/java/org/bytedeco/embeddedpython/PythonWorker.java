@@ -0,0 +1,538 @@
+package org.bytedeco.embeddedpython;
+
+import org.bytedeco.javacpp.Loader;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Python worker process of {@link PythonWorkerPool}.
+ * <p>
+ * The worker is a separate Python process of the same Python installation as {@link Python} and {@link Pip}.
+ * The requests and the values are sent through the stdin and stdout pipes of the process,
+ * and np.ndarray data is sent through shared memory files in /dev/shm.
+ * print() in the worker goes to the stderr of the Java process.
+ * <p>
+ * The values are converted like {@link Python#put(String, Object)} and {@link Python#get(String)}
+ * with these differences.
+ * Java Iterable, Object[], and Python list, tuple, and other iterables are converted to each other as list and ArrayList.
+ * numpy scalars are converted like Python int, float, and bool.
+ * Instant, NpNdarrayInstant, and functions are not supported.
+ * <p>
+ * This class is thread-safe. The requests are executed one by one.
+ */
+public class PythonWorker {
+    private static final String python = Loader.load(org.bytedeco.cpython.python.class);
+    private static final File shmDir = new File("/dev/shm").canWrite() ?
+            new File("/dev/shm") : new File(System.getProperty("java.io.tmpdir"));
+    private static String script;
+    // Unmaps a MappedByteBuffer without waiting for GC, or null if the JDK doesn't allow it.
+    private static final Consumer<ByteBuffer> unmapper = findUnmapper();
+
+    private final Process process;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private long callCount;
+    private long rss;
+    private boolean broken;
+    private List<File> shmFiles;
+    /**
+     * The number of {@link PythonWorkerPool#execute(Function)} tasks run with this worker. The setup code is not counted.
+     */
+    int taskCount;
+
+    PythonWorker() throws IOException {
+        List<String> paths = new ArrayList<>();
+        for (File f : org.bytedeco.cpython.presets.python.cachePackages()) paths.add(f.getPath());
+        for (File f : org.bytedeco.numpy.presets.numpy.cachePackages()) paths.add(f.getPath());
+
+        ProcessBuilder builder = new ProcessBuilder(python, "-c", loadScript(), shmDir.getPath());
+        Map<String, String> env = builder.environment();
+        env.put("PYTHONPATH", String.join(File.pathSeparator, paths));
+        // The shared libraries like OpenBLAS are extracted to the same folder as the Python executable.
+        String libPath = env.get("LD_LIBRARY_PATH");
+        String pythonDir = new File(python).getParent();
+        env.put("LD_LIBRARY_PATH", libPath == null ? pythonDir : pythonDir + File.pathSeparator + libPath);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+        process = builder.start();
+        out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+    }
+
+    private static synchronized String loadScript() throws IOException {
+        if (script == null) {
+            try (InputStream is = PythonWorker.class.getResourceAsStream("worker.py")) {
+                if (is == null) throw new FileNotFoundException("worker.py");
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = is.read(buf)) > 0) {
+                    bytes.write(buf, 0, n);
+                }
+                script = new String(bytes.toByteArray(), UTF_8);
+            }
+        }
+        return script;
+    }
+
+    private static Consumer<ByteBuffer> findUnmapper() {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            return buf -> invokeQuietly(invokeCleaner, unsafe, buf);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Fall through to Java 8.
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buf -> invokeQuietly(clean, invokeQuietly(cleaner, buf));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Object invokeQuietly(Method method, Object obj, Object... args) {
+        try {
+            return obj == null ? null : method.invoke(obj, args);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // The buffer is unmapped by GC instead.
+            return null;
+        }
+    }
+
+    /**
+     * The mapping would otherwise be kept until GC, which keeps the memory of the deleted shared memory file.
+     * buf must not be used after this.
+     */
+    private static void unmap(ByteBuffer buf) {
+        if (unmapper != null && buf instanceof MappedByteBuffer) unmapper.accept(buf);
+    }
+
+    /**
+     * Python built-in eval() in the worker.
+     *
+     * @param src Python code. This must be a single line code.
+     * @param <T> The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     * @throws PythonException If an error is thrown inside Python or the worker fails.
+     */
+    public <T> T eval(String src) {
+        return request('V', () -> writeString(src));
+    }
+
+    /**
+     * Python built-in exec() in the worker.
+     *
+     * @param src Python code. This can be multiple lines code.
+     * @throws PythonException If an error is thrown inside Python or the worker fails.
+     */
+    public void exec(String src) {
+        request('E', () -> writeString(src));
+    }
+
+    /**
+     * Get the global Python variable of the worker.
+     *
+     * @param name The variable name
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     * @throws PythonException If the variable does not exists or the worker fails.
+     */
+    public <T> T get(String name) {
+        return request('G', () -> writeString(name));
+    }
+
+    /**
+     * Set the global Python variable of the worker.
+     *
+     * @param name  The variable name
+     * @param value The value to put.
+     * @throws PythonException If the value cannot convert to a Python object or the worker fails.
+     */
+    public void put(String name, Object value) {
+        request('P', () -> {
+            writeString(name);
+            writeValue(value);
+        });
+    }
+
+    /**
+     * Call the Python function in the worker without compiling any Python code.
+     *
+     * @param name The dotted name of the callable. It is resolved like {@link Python#call(String, Object...)}.
+     * @param args The arguments.
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the return value.
+     * @throws PythonException If an error is thrown inside Python or the worker fails.
+     */
+    public <T> T call(String name, Object... args) {
+        return request('C', () -> {
+            writeString(name);
+            writeValue(args);
+        });
+    }
+
+    /**
+     * Check that the worker responds.
+     *
+     * @return true if the worker responds.
+     */
+    public boolean ping() {
+        try {
+            request('H', () -> {
+            });
+            return true;
+        } catch (PythonException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the worker process is running and has not failed.
+     */
+    public synchronized boolean isAlive() {
+        return !broken && process.isAlive();
+    }
+
+    /**
+     * @return The number of the requests executed by this worker.
+     */
+    public synchronized long getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * @return The resident set size of the worker process in bytes, reported at the last request.
+     */
+    public synchronized long getRss() {
+        return rss;
+    }
+
+    /**
+     * Stop the worker process.
+     */
+    synchronized void close() {
+        broken = true;
+        try {
+            out.close();
+            if (!process.waitFor(1, TimeUnit.SECONDS)) process.destroyForcibly();
+        } catch (IOException | InterruptedException e) {
+            process.destroyForcibly();
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Writer {
+        void write() throws IOException;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> T request(char op, Writer writer) {
+        if (!isAlive()) throw new PythonException("The Python worker is not running.");
+        List<File> files = new ArrayList<>();
+        shmFiles = files;
+        String error;
+        try {
+            out.writeByte(op);
+            writer.write();
+            out.flush();
+
+            int status = in.readUnsignedByte();
+            rss = in.readLong();
+            callCount++;
+            if (status != 'X') return (T) readValue();
+            error = readString();
+        } catch (IOException | RuntimeException e) {
+            // The request or the response is incomplete, so the worker cannot be used anymore.
+            broken = true;
+            process.destroyForcibly();
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+            if (e instanceof PythonException) throw (PythonException) e;
+            throw new PythonException("The Python worker failed.", e);
+        } finally {
+            shmFiles = null;
+        }
+        throw new PythonException("An error is thrown inside the Python worker.\n" + error);
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            out.writeByte('N');
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? 'T' : 'F');
+        } else if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long) {
+            out.writeByte('I');
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Character) {
+            out.writeByte('I');
+            out.writeLong((Character) value);
+        } else if (value instanceof Float || value instanceof Double) {
+            out.writeByte('D');
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof String) {
+            out.writeByte('S');
+            writeString((String) value);
+        } else if (value instanceof byte[]) {
+            byte[] ary = (byte[]) value;
+            out.writeByte('B');
+            out.writeInt(ary.length);
+            out.write(ary);
+        } else if (value instanceof boolean[]) {
+            boolean[] ary = (boolean[]) value;
+            writeArray("?", new int[]{ary.length}, new int[]{1}, 1, ary.length, buf -> {
+                for (boolean b : ary) buf.put((byte) (b ? 1 : 0));
+            });
+        } else if (value instanceof char[]) {
+            char[] ary = (char[]) value;
+            writeArray("H", new int[]{ary.length}, new int[]{1}, 2, ary.length, buf -> buf.asCharBuffer().put(ary));
+        } else if (value instanceof short[]) {
+            short[] ary = (short[]) value;
+            writeArray("h", new int[]{ary.length}, new int[]{1}, 2, ary.length, buf -> buf.asShortBuffer().put(ary));
+        } else if (value instanceof int[]) {
+            int[] ary = (int[]) value;
+            writeArray("i", new int[]{ary.length}, new int[]{1}, 4, ary.length, buf -> buf.asIntBuffer().put(ary));
+        } else if (value instanceof long[]) {
+            long[] ary = (long[]) value;
+            writeArray("q", new int[]{ary.length}, new int[]{1}, 8, ary.length, buf -> buf.asLongBuffer().put(ary));
+        } else if (value instanceof float[]) {
+            float[] ary = (float[]) value;
+            writeArray("f", new int[]{ary.length}, new int[]{1}, 4, ary.length, buf -> buf.asFloatBuffer().put(ary));
+        } else if (value instanceof double[]) {
+            double[] ary = (double[]) value;
+            writeArray("d", new int[]{ary.length}, new int[]{1}, 8, ary.length, buf -> buf.asDoubleBuffer().put(ary));
+        } else if (value instanceof NpNdarrayBoolean) {
+            NpNdarrayBoolean ndary = (NpNdarrayBoolean) value;
+            writeArray("?", ndary.shape, ndary.strides, 1, ndary.data.length, buf -> {
+                for (boolean b : ndary.data) buf.put((byte) (b ? 1 : 0));
+            });
+        } else if (value instanceof NpNdarrayByte) {
+            NpNdarrayByte ndary = (NpNdarrayByte) value;
+            writeArray("b", ndary.shape, ndary.strides, 1, ndary.data.length, buf -> buf.put(ndary.data));
+        } else if (value instanceof NpNdarrayChar) {
+            NpNdarrayChar ndary = (NpNdarrayChar) value;
+            writeArray("H", ndary.shape, ndary.strides, 2, ndary.data.length, buf -> buf.asCharBuffer().put(ndary.data));
+        } else if (value instanceof NpNdarrayShort) {
+            NpNdarrayShort ndary = (NpNdarrayShort) value;
+            writeArray("h", ndary.shape, ndary.strides, 2, ndary.data.length, buf -> buf.asShortBuffer().put(ndary.data));
+        } else if (value instanceof NpNdarrayInt) {
+            NpNdarrayInt ndary = (NpNdarrayInt) value;
+            writeArray("i", ndary.shape, ndary.strides, 4, ndary.data.length, buf -> buf.asIntBuffer().put(ndary.data));
+        } else if (value instanceof NpNdarrayLong) {
+            NpNdarrayLong ndary = (NpNdarrayLong) value;
+            writeArray("q", ndary.shape, ndary.strides, 8, ndary.data.length, buf -> buf.asLongBuffer().put(ndary.data));
+        } else if (value instanceof NpNdarrayFloat) {
+            NpNdarrayFloat ndary = (NpNdarrayFloat) value;
+            writeArray("f", ndary.shape, ndary.strides, 4, ndary.data.length, buf -> buf.asFloatBuffer().put(ndary.data));
+        } else if (value instanceof NpNdarrayDouble) {
+            NpNdarrayDouble ndary = (NpNdarrayDouble) value;
+            writeArray("d", ndary.shape, ndary.strides, 8, ndary.data.length, buf -> buf.asDoubleBuffer().put(ndary.data));
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte('M');
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        } else if (value instanceof Object[]) {
+            Object[] ary = (Object[]) value;
+            out.writeByte('L');
+            out.writeInt(ary.length);
+            for (Object v : ary) {
+                writeValue(v);
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            out.writeByte('L');
+            out.writeInt(collection.size());
+            for (Object v : collection) {
+                writeValue(v);
+            }
+        } else if (value instanceof Iterable) {
+            List<Object> list = new ArrayList<>();
+            ((Iterable<?>) value).forEach(list::add);
+            writeValue(list);
+        } else {
+            throw new PythonException("Cannot convert the Java object for the Python worker. " +
+                    value.getClass().getName() + "  <- Unsupported");
+        }
+    }
+
+    private void writeArray(String dtype, int[] shape, int[] strides, int itemsize, int length,
+                            Consumer<ByteBuffer> fill) throws IOException {
+        long size = (long) length * itemsize;
+        File file = File.createTempFile("embeddedpython-", "", shmDir);
+        shmFiles.add(file);
+        if (size > 0) {
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                try {
+                    buf.order(ByteOrder.nativeOrder());
+                    fill.accept(buf);
+                } finally {
+                    unmap(buf);
+                }
+            }
+        }
+
+        out.writeByte('A');
+        writeString(dtype);
+        out.writeInt(shape.length);
+        for (int n : shape) {
+            out.writeLong(n);
+        }
+        for (int s : strides) {
+            out.writeLong((long) s * itemsize);
+        }
+        out.writeLong(size);
+        writeString(file.getPath());
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private Object readValue() throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'N':
+                return null;
+            case 'T':
+                return true;
+            case 'F':
+                return false;
+            case 'I':
+                return in.readLong();
+            case 'D':
+                return in.readDouble();
+            case 'S':
+                return readString();
+            case 'B': {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return bytes;
+            }
+            case 'L': {
+                int n = in.readInt();
+                ArrayList<Object> list = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    list.add(readValue());
+                }
+                return list;
+            }
+            case 'M': {
+                int n = in.readInt();
+                LinkedHashMap<Object, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < n; i++) {
+                    Object key = readValue();
+                    map.put(key, readValue());
+                }
+                return map;
+            }
+            case 'A':
+                return readArray();
+            default:
+                throw new IOException("Unknown tag: " + tag);
+        }
+    }
+
+    private NpNdarray readArray() throws IOException {
+        String dtype = readString();
+        int[] shape = new int[in.readInt()];
+        for (int i = 0; i < shape.length; i++) {
+            shape[i] = Math.toIntExact(in.readLong());
+        }
+        Path path = new File(readString()).toPath();
+        int[] strides = NpNdarray.toContiguousStrides(shape);
+        int length = NpNdarray.intAryProduct(shape);
+
+        ByteBuffer buf = ByteBuffer.allocate(0);
+        try {
+            if (length > 0) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+            buf.order(ByteOrder.nativeOrder());
+            switch (dtype) {
+                case "?": {
+                    boolean[] data = new boolean[length];
+                    for (int i = 0; i < length; i++) data[i] = buf.get(i) != 0;
+                    return new NpNdarrayBoolean(data, shape, strides);
+                }
+                case "b": {
+                    byte[] data = new byte[length];
+                    buf.get(data);
+                    return new NpNdarrayByte(data, shape, strides);
+                }
+                case "H": {
+                    char[] data = new char[length];
+                    buf.asCharBuffer().get(data);
+                    return new NpNdarrayChar(data, shape, strides);
+                }
+                case "h": {
+                    short[] data = new short[length];
+                    buf.asShortBuffer().get(data);
+                    return new NpNdarrayShort(data, shape, strides);
+                }
+                case "i": {
+                    int[] data = new int[length];
+                    buf.asIntBuffer().get(data);
+                    return new NpNdarrayInt(data, shape, strides);
+                }
+                case "q": {
+                    long[] data = new long[length];
+                    buf.asLongBuffer().get(data);
+                    return new NpNdarrayLong(data, shape, strides);
+                }
+                case "f": {
+                    float[] data = new float[length];
+                    buf.asFloatBuffer().get(data);
+                    return new NpNdarrayFloat(data, shape, strides);
+                }
+                case "d": {
+                    double[] data = new double[length];
+                    buf.asDoubleBuffer().get(data);
+                    return new NpNdarrayDouble(data, shape, strides);
+                }
+                default:
+                    throw new IOException("Unknown dtype: " + dtype);
+            }
+        } finally {
+            unmap(buf);
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.bytedeco.embeddedpython;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Pool of {@link PythonWorker} processes.
+ * <p>
+ * Each worker is a separate Python process with its own GIL and memory,
+ * so the Python code runs in parallel on multiple cores and numpy can be used, unlike {@link PythonInterpreterPool}.
+ * The values are sent through pipes, and np.ndarray data through shared memory files in /dev/shm.
+ * <p>
+ * A worker is replaced with a new one when it dies, after maxCallsPerWorker tasks,
+ * or when its resident set size exceeds maxRssBytes. This contains slow memory leaks in native libraries.
+ * The setup code run by {@link #execAll(String)} and {@link #putAll(String, Object)} is replayed on the new workers.
+ *
+ * <pre>{@code
+ * try (PythonWorkerPool pool = new PythonWorkerPool(4, 10000, 1L << 30)) {
+ *     pool.execAll("import numpy as np");
+ *     NpNdarrayDouble v = pool.call("np.cumsum", new double[]{1, 2, 3});
+ * }
+ * }</pre>
+ * <p>
+ * Don't forget to call {@link #close()}.
+ */
+public class PythonWorkerPool implements AutoCloseable {
+    private final int maxCallsPerWorker;
+    private final long maxRssBytes;
+    private final List<PythonWorker> workers = new ArrayList<>();
+    // In the order of the calls. The key is the variable name for putAll() and a unique object for execAll().
+    private final Map<Object, Consumer<PythonWorker>> setup = new LinkedHashMap<>();
+    private final BlockingQueue<PythonWorker> idle;
+    private boolean closed;
+
+    /**
+     * Start the workers. They are not recycled.
+     *
+     * @param size The number of the workers.
+     * @throws PythonException If a worker cannot be started.
+     */
+    public PythonWorkerPool(int size) {
+        this(size, 0, 0);
+    }
+
+    /**
+     * Start the workers.
+     *
+     * @param size              The number of the workers.
+     * @param maxCallsPerWorker A worker is recycled after this number of tasks. 0 means unlimited.
+     * @param maxRssBytes       A worker is recycled when its resident set size exceeds this. 0 means unlimited.
+     * @throws PythonException If a worker cannot be started.
+     */
+    public PythonWorkerPool(int size, int maxCallsPerWorker, long maxRssBytes) {
+        if (size <= 0) throw new IllegalArgumentException("size = " + size);
+        if (maxCallsPerWorker < 0) throw new IllegalArgumentException("maxCallsPerWorker = " + maxCallsPerWorker);
+        if (maxRssBytes < 0) throw new IllegalArgumentException("maxRssBytes = " + maxRssBytes);
+        this.maxCallsPerWorker = maxCallsPerWorker;
+        this.maxRssBytes = maxRssBytes;
+        this.idle = new ArrayBlockingQueue<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                PythonWorker worker = startWorker();
+                workers.add(worker);
+                idle.add(worker);
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of the workers.
+     */
+    public int size() {
+        return idle.remainingCapacity() + idle.size();
+    }
+
+    /**
+     * Run the task with an idle worker. All the calls inside the task go to the same worker.
+     * If all the workers are busy, this waits for one of them.
+     *
+     * @param task The task.
+     * @param <T>  The return type of the task.
+     * @return The return value of the task.
+     */
+    public <T> T execute(Function<PythonWorker, T> task) {
+        PythonWorker worker = take();
+        try {
+            if (!worker.isAlive()) worker = replace(worker);
+            worker.taskCount++;
+            return task.apply(worker);
+        } finally {
+            idle.add(recycle(worker));
+        }
+    }
+
+    /**
+     * {@link PythonWorker#eval(String)} on an idle worker.
+     *
+     * @param src Python code. This must be a single line code.
+     * @param <T> The Java class after conversion from Python.
+     * @return The Java object converted from the Python object.
+     */
+    public <T> T eval(String src) {
+        return execute(worker -> worker.eval(src));
+    }
+
+    /**
+     * {@link PythonWorker#call(String, Object...)} on an idle worker.
+     *
+     * @param name The dotted name of the callable.
+     * @param args The arguments.
+     * @param <T>  The Java class after conversion from Python.
+     * @return The Java object converted from the return value.
+     */
+    public <T> T call(String name, Object... args) {
+        return execute(worker -> worker.call(name, args));
+    }
+
+    /**
+     * {@link PythonWorker#exec(String)} on all the workers, including the workers started later.
+     *
+     * @param src Python code. This can be multiple lines code.
+     */
+    public void execAll(String src) {
+        broadcast(new Object(), worker -> worker.exec(src));
+    }
+
+    /**
+     * {@link PythonWorker#put(String, Object)} on all the workers, including the workers started later.
+     * The pool keeps only the latest value of each name for the workers started later,
+     * and it is put at the place of the first putAll() of the name in the setup code.
+     *
+     * @param name  The variable name
+     * @param value The value to put.
+     */
+    public void putAll(String name, Object value) {
+        broadcast(name, worker -> worker.put(name, value));
+    }
+
+    /**
+     * Ping the idle workers and replace the workers that do not respond.
+     *
+     * @return The number of the replaced workers.
+     */
+    public int checkHealth() {
+        int replaced = 0;
+        for (int i = idle.size(); i > 0; i--) {
+            PythonWorker worker = idle.poll();
+            if (worker == null) break;
+            try {
+                if (!worker.ping()) {
+                    worker = replace(worker);
+                    replaced++;
+                }
+            } finally {
+                idle.add(worker);
+            }
+        }
+        return replaced;
+    }
+
+    /**
+     * Stop all the workers.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        workers.forEach(PythonWorker::close);
+    }
+
+    private synchronized void broadcast(Object key, Consumer<PythonWorker> task) {
+        if (closed) throw new IllegalStateException("The PythonWorkerPool is already closed.");
+        setup.put(key, task);
+        for (PythonWorker worker : workers) {
+            // The dead workers run the setup code when they are replaced.
+            if (worker.isAlive()) task.accept(worker);
+        }
+    }
+
+    private PythonWorker recycle(PythonWorker worker) {
+        boolean recycle = !worker.isAlive() ||
+                (maxCallsPerWorker > 0 && worker.taskCount >= maxCallsPerWorker) ||
+                (maxRssBytes > 0 && worker.getRss() > maxRssBytes);
+        if (!recycle) return worker;
+        try {
+            return replace(worker);
+        } catch (RuntimeException e) {
+            // Keep the old worker. It is replaced again on the next request if it is dead.
+            return worker;
+        }
+    }
+
+    private synchronized PythonWorker replace(PythonWorker worker) {
+        if (closed) throw new IllegalStateException("The PythonWorkerPool is already closed.");
+        PythonWorker newWorker = startWorker();
+        worker.close();
+        workers.set(workers.indexOf(worker), newWorker);
+        return newWorker;
+    }
+
+    private synchronized PythonWorker startWorker() {
+        PythonWorker worker;
+        try {
+            worker = new PythonWorker();
+        } catch (IOException e) {
+            throw new PythonException("Failed to start a Python worker.", e);
+        }
+        try {
+            setup.values().forEach(task -> task.accept(worker));
+        } catch (RuntimeException e) {
+            worker.close();
+            throw e;
+        }
+        return worker;
+    }
+
+    private PythonWorker take() {
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PythonException("Interrupted while waiting for an idle PythonWorker.", e);
+        }
+    }
+}
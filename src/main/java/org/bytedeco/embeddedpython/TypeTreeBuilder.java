@@ -1,20 +1,109 @@
 package org.bytedeco.embeddedpython;
 
-import java.util.Collections;
+import org.bytedeco.cpython.PyObject;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * The path of value types from the root value to the value being converted.
+ * <p>
+ * {@link #addType(String)} only stores the type at the current depth and drops the deeper ones,
+ * so a large collection costs no string building.
+ * The tree is rendered by {@link #toString()} when a conversion fails.
+ * Each element below the root shows its index among the siblings, like "[3] Integer".
+ * The middle of a very deep path is omitted.
+ * <p>
+ * This also counts the converted values for the limits of {@link Python#setMaxConversionSize(long)},
+ * and remembers the converted containers to convert shared ones once.
+ */
 class TypeTreeBuilder {
-    private final StringBuilder stringBuilder = new StringBuilder();
+    private static final int SHOWN_LEVELS = 32;
+
+    private int rootTab;
+    private String[] types = new String[8];
+    private int[] indexes = new int[8];
+    private int size;
     int tab;
+    long values;
+    // The number of Python.toJava() and Python.toPyObject() in progress. They can be nested by PyConverter.
+    int nesting;
+    // The address of a Python container to its Java object. The containers are referred by javaObjectSources.
+    HashMap<Long, Object> javaObjects;
+    ArrayList<PyObject> javaObjectSources;
+    // A Java container to its Python object. Borrowed references.
+    IdentityHashMap<Object, PyObject> pyObjects;
 
     public TypeTreeBuilder(int tab) {
+        this.rootTab = tab;
+        this.tab = tab;
+        this.size = tab;
+    }
+
+    /**
+     * Clear the tree to reuse this builder.
+     */
+    void reset(int tab) {
+        Arrays.fill(types, null);
+        this.rootTab = tab;
         this.tab = tab;
+        this.size = tab;
+        this.values = 0;
+        this.nesting = 0;
+        this.javaObjects = null;
+        this.javaObjectSources = null;
+        this.pyObjects = null;
+    }
+
+    /**
+     * @return The nesting depth of the current value. The root value is 0.
+     */
+    int depth() {
+        return tab - rootTab;
     }
 
     void addType(String t) {
-        stringBuilder.append(String.join("", Collections.nCopies(tab, "  "))).append(t).append("\n");
+        if (tab >= types.length) {
+            int capacity = Math.max(types.length * 2, tab + 1);
+            types = Arrays.copyOf(types, capacity);
+            indexes = Arrays.copyOf(indexes, capacity);
+        }
+        if (size > tab && types[tab] != null) {
+            indexes[tab]++;
+        } else {
+            indexes[tab] = 0;
+        }
+        types[tab] = t;
+        for (int i = tab + 1; i < size; i++) {
+            types[i] = null;
+        }
+        size = tab + 1;
     }
 
     public String toString() {
-        return stringBuilder.toString();
+        StringBuilder sb = new StringBuilder();
+        int omitFrom = size - rootTab > SHOWN_LEVELS * 2 ? rootTab + SHOWN_LEVELS : size;
+        int omitTo = size - SHOWN_LEVELS;
+        for (int i = 0; i < size; i++) {
+            if (i == omitFrom) {
+                indent(sb, i);
+                sb.append("... ").append(omitTo - omitFrom).append(" levels\n");
+                i = omitTo - 1;
+                continue;
+            }
+            if (types[i] == null) continue;
+            indent(sb, i < omitFrom ? i : i - (omitTo - omitFrom) + 1);
+            if (i > rootTab) sb.append('[').append(indexes[i]).append("] ");
+            sb.append(types[i]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void indent(StringBuilder sb, int depth) {
+        for (int j = 0; j < depth; j++) {
+            sb.append("  ");
+        }
     }
 }
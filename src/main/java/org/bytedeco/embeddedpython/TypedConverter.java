@@ -0,0 +1,376 @@
+package org.bytedeco.embeddedpython;
+
+import org.bytedeco.cpython.PyObject;
+import org.bytedeco.cpython.global.python;
+import org.bytedeco.javacpp.*;
+import org.bytedeco.numpy.PyArrayObject;
+import org.bytedeco.numpy.PyArray_Descr;
+
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.bytedeco.cpython.global.python.*;
+import static org.bytedeco.embeddedpython.PyTypes.*;
+import static org.bytedeco.numpy.global.numpy.*;
+
+/**
+ * Python to Java conversion directed by the requested Java class.
+ * <p>
+ * Scalars are read directly into the primitive type.
+ * Primitive arrays and NpNdarray are converted like np.array(value).astype(dtype) in C order
+ * without casting float to int, bool to numbers, or wrapping integers,
+ * and copied at once, so lists don't go through ArrayList of boxed values.
+ * The other classes are converted as usual and checked against the requested class.
+ * <p>
+ * The caller must hold the GIL.
+ */
+class TypedConverter {
+    private static final Map<Class<?>, Class<?>> boxes = new HashMap<>();
+    private static final Map<Class<?>, Integer> leafTypeNums = new HashMap<>();
+    private static final Map<Class<?>, Class<?>> ndarrayLeaves = new HashMap<>();
+
+    static {
+        boxes.put(boolean.class, Boolean.class);
+        boxes.put(byte.class, Byte.class);
+        boxes.put(char.class, Character.class);
+        boxes.put(short.class, Short.class);
+        boxes.put(int.class, Integer.class);
+        boxes.put(long.class, Long.class);
+        boxes.put(float.class, Float.class);
+        boxes.put(double.class, Double.class);
+
+        leafTypeNums.put(boolean.class, NPY_BOOL);
+        leafTypeNums.put(char.class, NPY_USHORT);
+        leafTypeNums.put(short.class, NPY_SHORT);
+        leafTypeNums.put(int.class, NPY_INT);
+        leafTypeNums.put(long.class, NPY_LONGLONG);
+        leafTypeNums.put(float.class, NPY_FLOAT);
+        leafTypeNums.put(double.class, NPY_DOUBLE);
+
+        ndarrayLeaves.put(NpNdarrayBoolean.class, boolean.class);
+        ndarrayLeaves.put(NpNdarrayByte.class, byte.class);
+        ndarrayLeaves.put(NpNdarrayChar.class, char.class);
+        ndarrayLeaves.put(NpNdarrayShort.class, short.class);
+        ndarrayLeaves.put(NpNdarrayInt.class, int.class);
+        ndarrayLeaves.put(NpNdarrayLong.class, long.class);
+        ndarrayLeaves.put(NpNdarrayFloat.class, float.class);
+        ndarrayLeaves.put(NpNdarrayDouble.class, double.class);
+    }
+
+    private TypedConverter() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T toJava(PyObject obj, Class<T> type, TypeTreeBuilder builder) {
+        Class<?> boxed = type.isPrimitive() ? boxes.get(type) : type;
+
+        if (PyNone_Check(obj)) {
+            if (type.isPrimitive()) throw cannotConvert(obj, type, builder);
+            builder.addType("None");
+            return null;
+        } else if (boxed == Double.class || boxed == Float.class) {
+            double v = readDouble(obj, type, builder);
+            builder.addType(typeName(obj));
+            return (T) (boxed == Double.class ? (Object) v : (Object) (float) v);
+        } else if (boxed == Long.class || boxed == Integer.class || boxed == Short.class || boxed == Byte.class ||
+                boxed == Character.class) {
+            long v = readLong(obj, type, builder);
+            builder.addType(typeName(obj));
+            if (boxed == Long.class) return (T) (Object) v;
+            if (boxed == Integer.class && v == (int) v) return (T) (Object) (int) v;
+            if (boxed == Short.class && v == (short) v) return (T) (Object) (short) v;
+            if (boxed == Byte.class && v == (byte) v) return (T) (Object) (byte) v;
+            if (boxed == Character.class && v == (char) v) return (T) (Object) (char) v;
+            throw outOfRange(type, builder);
+        } else if (boxed == Boolean.class) {
+            if (!PyBool_Check(obj) && !PyTypes.Py_TYPE(obj).equals(boolArrType)) throw cannotConvert(obj, type, builder);
+            builder.addType(typeName(obj));
+            return (T) (Object) (PyObject_IsTrue(obj) != 0);
+        } else if (boxed == String.class) {
+            if (!PyUnicode_Check(obj)) throw cannotConvert(obj, type, builder);
+            builder.addType("str");
+            return (T) PyStrings.toJavaString(obj);
+        }
+
+        Class<?> leaf = type;
+        int ndim = 0;
+        while (leaf.isArray()) {
+            leaf = leaf.getComponentType();
+            ndim++;
+        }
+        if (ndim > 0 && leafTypeNums.containsKey(leaf)) {
+            return (T) toArray(obj, type, leaf, ndim, builder);
+        }
+        Class<?> ndarrayLeaf = ndarrayLeaves.get(type);
+        if (ndarrayLeaf != null) {
+            return (T) toNdarray(obj, type, ndarrayLeaf, builder);
+        }
+
+        Object value = Python.toJava(obj, builder);
+        if (value != null && !boxed.isInstance(value)) {
+            throw new PythonException("The Python object is converted to " + value.getClass().getName() +
+                    ", which is not " + type.getName() + ".\n" +
+                    "\nValue type tree\n" + builder.toString());
+        }
+        return (T) value;
+    }
+
+    /**
+     * Read a floating-point number. float, int, and the objects with __float__ or __index__ are accepted.
+     * bool and np.bool_ are not, as {@link #readLong(PyObject, Class, TypeTreeBuilder)} doesn't.
+     *
+     * @param builder The type tree, or null to create it only when the conversion fails.
+     */
+    static double readDouble(PyObject obj, Class<?> type, TypeTreeBuilder builder) {
+        if (isBool(obj)) throw cannotConvert(obj, type, builder == null ? new TypeTreeBuilder(1) : builder);
+        double v = PyFloat_AsDouble(obj);
+        if (v == -1.0 && PyErr_Occurred() != null) {
+            PyErr_Clear();
+            throw cannotConvert(obj, type, builder == null ? new TypeTreeBuilder(1) : builder);
+        }
+        return v;
+    }
+
+    /**
+     * Read an integer. int and the objects with __index__, like np.int64, are accepted.
+     * bool and float are not, so the value is never a truncated or a logical value.
+     * This allocates nothing unless the conversion fails.
+     *
+     * @param builder The type tree, or null to create it only when the conversion fails.
+     */
+    static long readLong(PyObject obj, Class<?> type, TypeTreeBuilder builder) {
+        if (isBool(obj) || python.PyObject_TypeCheck(obj, floatType) != 0) {
+            throw cannotConvert(obj, type, builder == null ? new TypeTreeBuilder(1) : builder);
+        }
+        long v = PyLong_AsLongLong(obj);
+        if (v == -1 && PyErr_Occurred() != null) {
+            boolean overflow = PyErr_ExceptionMatches(PyExc_OverflowError()) != 0;
+            PyErr_Clear();
+            if (builder == null) builder = new TypeTreeBuilder(1);
+            throw overflow ? outOfRange(obj, type, builder) : cannotConvert(obj, type, builder);
+        }
+        return v;
+    }
+
+    // The native type checks don't create a PyTypeObject for Py_TYPE().
+    private static boolean isBool(PyObject obj) {
+        return python.Py_IS_TYPE(obj, boolType) != 0 || python.Py_IS_TYPE(obj, boolArrType) != 0;
+    }
+
+    /**
+     * Convert to a (nested) primitive array. byte[] is not handled here because bytes is converted to byte[].
+     */
+    private static Object toArray(PyObject obj, Class<?> type, Class<?> leaf, int ndim, TypeTreeBuilder builder) {
+        PyObject ary = fromAny(obj, type, leaf, ndim, builder);
+        try {
+            PyArrayObject aryObj = new PyArrayObject(ary);
+            int[] shape = shapeOf(aryObj);
+            Object flat = copyFlat(aryObj, leaf);
+            if (ndim == 1) return flat;
+            return nest(flat, type, shape, 0, new int[1]);
+        } finally {
+            Py_DecRef(ary);
+        }
+    }
+
+    private static Object toNdarray(PyObject obj, Class<?> type, Class<?> leaf, TypeTreeBuilder builder) {
+        PyObject ary = fromAny(obj, type, leaf, 0, builder);
+        try {
+            PyArrayObject aryObj = new PyArrayObject(ary);
+            int[] shape = shapeOf(aryObj);
+            int[] strides = NpNdarray.toContiguousStrides(shape);
+            Object data = copyFlat(aryObj, leaf);
+            if (leaf == boolean.class) return new NpNdarrayBoolean((boolean[]) data, shape, strides);
+            if (leaf == byte.class) return new NpNdarrayByte((byte[]) data, shape, strides);
+            if (leaf == char.class) return new NpNdarrayChar((char[]) data, shape, strides);
+            if (leaf == short.class) return new NpNdarrayShort((short[]) data, shape, strides);
+            if (leaf == int.class) return new NpNdarrayInt((int[]) data, shape, strides);
+            if (leaf == long.class) return new NpNdarrayLong((long[]) data, shape, strides);
+            if (leaf == float.class) return new NpNdarrayFloat((float[]) data, shape, strides);
+            return new NpNdarrayDouble((double[]) data, shape, strides);
+        } finally {
+            Py_DecRef(ary);
+        }
+    }
+
+    /**
+     * np.array(obj).astype(dtype) in C order. Don't forget to call Py_DecRef().
+     * <p>
+     * Unlike np.array(obj, dtype=...), the elements are not cast to another kind,
+     * so float is not truncated to int and bool is not read as a number, as the scalar conversion doesn't.
+     * Integers are narrowed only if the minimum and the maximum fit, like the scalar range check.
+     *
+     * @param ndim The required ndim, or 0 for any ndim.
+     */
+    private static PyObject fromAny(PyObject obj, Class<?> type, Class<?> leaf, int ndim, TypeTreeBuilder builder) {
+        PyObject natural = PyArray_FromAny(obj, null, ndim, ndim, 0, null);
+        if (natural == null) {
+            PyErr_Clear();
+            throw cannotConvert(obj, type, builder);
+        }
+        try {
+            PyArrayObject naturalObj = new PyArrayObject(natural);
+            int typeNum = leaf == byte.class ? NPY_BYTE : leafTypeNums.get(leaf);
+            PyArray_Descr descr = PyArray_DescrFromType(typeNum);
+            // An empty list has no elements to cast, although np.array([]) is float64.
+            if (PyArray_Size(naturalObj) != 0) {
+                try {
+                    // bool is not a number here, as the scalar conversion doesn't read it as a number.
+                    if (PyArray_CanCastTypeTo(PyArray_DESCR(naturalObj), descr, NPY_SAME_KIND_CASTING) == 0 ||
+                            (leaf != boolean.class && PyArray_TYPE(naturalObj) == NPY_BOOL)) {
+                        throw cannotConvert(obj, type, builder);
+                    }
+                    if (PyArray_CanCastTypeTo(PyArray_DESCR(naturalObj), descr, NPY_SAFE_CASTING) == 0 &&
+                            isInteger(leaf)) {
+                        checkRange(naturalObj, obj, type, leaf, builder);
+                    }
+                } catch (RuntimeException e) {
+                    Py_DecRef(new PyObject(descr));
+                    throw e;
+                }
+            }
+            // Steals the reference to descr. Narrowing in the same kind, like int64 to int32, is range-checked above.
+            PyObject ary = PyArray_FromArray(naturalObj, descr,
+                    NPY_ARRAY_C_CONTIGUOUS | NPY_ARRAY_ALIGNED | NPY_ARRAY_FORCECAST);
+            if (ary == null) {
+                PyErr_Clear();
+                throw cannotConvert(obj, type, builder);
+            }
+            builder.addType(typeName(obj) + " -> " + type.getSimpleName());
+            return ary;
+        } finally {
+            Py_DecRef(natural);
+        }
+    }
+
+    private static boolean isInteger(Class<?> leaf) {
+        return leaf == byte.class || leaf == char.class || leaf == short.class || leaf == int.class ||
+                leaf == long.class;
+    }
+
+    /**
+     * Check that the minimum and the maximum of the integer ndarray fit in the leaf type, so the cast doesn't wrap.
+     */
+    private static void checkRange(PyArrayObject naturalObj, PyObject obj, Class<?> type, Class<?> leaf,
+                                   TypeTreeBuilder builder) {
+        for (int i = 0; i < 2; i++) {
+            PyObject extreme = i == 0 ? PyArray_Min(naturalObj, NPY_MAXDIMS, null) :
+                    PyArray_Max(naturalObj, NPY_MAXDIMS, null);
+            if (extreme == null) {
+                PyErr_Clear();
+                throw cannotConvert(obj, type, builder);
+            }
+            try {
+                long v = PyLong_AsLongLong(extreme);
+                boolean overflow = v == -1 && PyErr_Occurred() != null;
+                if (overflow) PyErr_Clear();
+                if (overflow || !fits(v, leaf)) throw outOfRange(extreme, leaf, builder);
+            } finally {
+                Py_DecRef(extreme);
+            }
+        }
+    }
+
+    private static boolean fits(long v, Class<?> leaf) {
+        if (leaf == int.class) return v == (int) v;
+        if (leaf == short.class) return v == (short) v;
+        if (leaf == byte.class) return v == (byte) v;
+        if (leaf == char.class) return v == (char) v;
+        return true;
+    }
+
+    private static int[] shapeOf(PyArrayObject aryObj) {
+        int ndim = PyArray_NDIM(aryObj);
+        long[] shape = new long[ndim];
+        PyArray_DIMS(aryObj).get(shape);
+        int[] intShape = new int[ndim];
+        for (int i = 0; i < ndim; i++) {
+            if (shape[i] > Integer.MAX_VALUE) throw new PythonException("Cannot convert the too large ndarray.");
+            intShape[i] = (int) shape[i];
+        }
+        return intShape;
+    }
+
+    /**
+     * Copy the C-contiguous ndarray to a 1-D primitive array.
+     */
+    private static Object copyFlat(PyArrayObject aryObj, Class<?> leaf) {
+        long size = PyArray_Size(aryObj);
+        if (size > Integer.MAX_VALUE) throw new PythonException("Cannot convert the too large ndarray.");
+        int n = (int) size;
+        BytePointer data = PyArray_BYTES(aryObj);
+        if (leaf == boolean.class) {
+            boolean[] ary = new boolean[n];
+            new BooleanPointer(data).get(ary);
+            return ary;
+        } else if (leaf == byte.class) {
+            byte[] ary = new byte[n];
+            data.get(ary);
+            return ary;
+        } else if (leaf == char.class) {
+            char[] ary = new char[n];
+            new CharPointer(data).get(ary);
+            return ary;
+        } else if (leaf == short.class) {
+            short[] ary = new short[n];
+            new ShortPointer(data).get(ary);
+            return ary;
+        } else if (leaf == int.class) {
+            int[] ary = new int[n];
+            new IntPointer(data).get(ary);
+            return ary;
+        } else if (leaf == long.class) {
+            long[] ary = new long[n];
+            new LongPointer(data).get(ary);
+            return ary;
+        } else if (leaf == float.class) {
+            float[] ary = new float[n];
+            new FloatPointer(data).get(ary);
+            return ary;
+        } else {
+            double[] ary = new double[n];
+            new DoublePointer(data).get(ary);
+            return ary;
+        }
+    }
+
+    /**
+     * Split the flat array into nested arrays like float[][].
+     *
+     * @param type The array class of this depth.
+     */
+    private static Object nest(Object flat, Class<?> type, int[] shape, int depth, int[] position) {
+        Object ary = Array.newInstance(type.getComponentType(), shape[depth]);
+        if (depth == shape.length - 1) {
+            System.arraycopy(flat, position[0], ary, 0, shape[depth]);
+            position[0] += shape[depth];
+        } else {
+            for (int i = 0; i < shape[depth]; i++) {
+                Array.set(ary, i, nest(flat, type.getComponentType(), shape, depth + 1, position));
+            }
+        }
+        return ary;
+    }
+
+    private static String typeName(PyObject obj) {
+        return new BytePointer(PyTypes.Py_TYPE(obj).tp_name()).getString(UTF_8);
+    }
+
+    private static PythonException outOfRange(PyObject obj, Class<?> type, TypeTreeBuilder builder) {
+        builder.addType(typeName(obj));
+        return outOfRange(type, builder);
+    }
+
+    private static PythonException outOfRange(Class<?> type, TypeTreeBuilder builder) {
+        return new PythonException("The Python int is out of range of " + type.getName() + ".\n" +
+                "\nValue type tree\n" + builder.toString());
+    }
+
+    static PythonException cannotConvert(PyObject obj, Class<?> type, TypeTreeBuilder builder) {
+        builder.addType(typeName(obj) + "  <- Cannot convert to " + type.getName());
+        return new PythonException("Cannot convert the Python object to " + type.getName() + ".\n" +
+                "\nValue type tree\n" + builder.toString());
+    }
+}
@@ -0,0 +1,14 @@
+package org.bytedeco.embeddedpython;
+
+/**
+ * Java 8 version. There are no virtual threads.
+ * The Java 21 version in META-INF/versions/21 of the multi-release jar replaces this class.
+ */
+class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    static boolean isVirtual() {
+        return false;
+    }
+}
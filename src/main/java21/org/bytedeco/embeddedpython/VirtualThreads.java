@@ -0,0 +1,13 @@
+package org.bytedeco.embeddedpython;
+
+/**
+ * Java 21 version in META-INF/versions/21 of the multi-release jar.
+ */
+class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    static boolean isVirtual() {
+        return Thread.currentThread().isVirtual();
+    }
+}
@@ -0,0 +1,262 @@
+# Worker process of org.bytedeco.embeddedpython.PythonWorkerPool.
+#
+# Requests are read from stdin and responses are written to stdout.
+# The values are encoded by tags. See PythonWorker.java for the protocol.
+# np.ndarray data is transferred through shared memory files instead of the pipe.
+
+import builtins
+import importlib
+import mmap
+import os
+import struct
+import sys
+import traceback
+
+import numpy as np
+
+SHM_DIR = sys.argv[1]
+PAGE_SIZE = os.sysconf("SC_PAGE_SIZE")
+
+# The protocol uses the original stdout. print() in the user code goes to stderr.
+out = os.fdopen(os.dup(1), "wb")
+os.dup2(2, 1)
+sys.stdout = sys.stderr
+inp = sys.stdin.buffer
+
+DTYPES = {"?": np.bool_, "b": np.int8, "h": np.int16, "H": np.uint16,
+          "i": np.int32, "q": np.int64, "f": np.float32, "d": np.float64}
+CODES = {np.dtype(v): k for k, v in DTYPES.items()}
+shm_counter = 0
+shm_read = []
+shm_written = []
+main_globals = {"__name__": "__main__", "__builtins__": builtins}
+
+
+def read_exact(n):
+    b = inp.read(n)
+    if len(b) != n:
+        sys.exit(0)
+    return b
+
+
+def read_int():
+    return struct.unpack(">i", read_exact(4))[0]
+
+
+def read_long():
+    return struct.unpack(">q", read_exact(8))[0]
+
+
+def read_str():
+    return read_exact(read_int()).decode("utf-8")
+
+
+class Pairs(list):
+    """The items of a dict, read before the dict is built."""
+
+
+class ArrayFile:
+    """An np.ndarray in a shared memory file, read before the ndarray is loaded."""
+
+    def __init__(self, code, shape, strides, size, path):
+        self.code = code
+        self.shape = shape
+        self.strides = strides
+        self.size = size
+        self.path = path
+
+
+def protocol_error(message):
+    # The rest of the request cannot be located in the stream, so the worker cannot continue.
+    sys.stderr.write("Python worker: %s\n" % message)
+    sys.stderr.flush()
+    os._exit(1)
+
+
+def read_value():
+    """Read a value without building it, so the whole request is read even if building it fails later."""
+    tag = read_exact(1)
+    if tag == b"N":
+        return None
+    elif tag == b"T":
+        return True
+    elif tag == b"F":
+        return False
+    elif tag == b"I":
+        return read_long()
+    elif tag == b"D":
+        return struct.unpack(">d", read_exact(8))[0]
+    elif tag == b"S":
+        return read_str()
+    elif tag == b"B":
+        return read_exact(read_int())
+    elif tag == b"L":
+        return [read_value() for _ in range(read_int())]
+    elif tag == b"M":
+        return Pairs((read_value(), read_value()) for _ in range(read_int()))
+    elif tag == b"A":
+        code = read_str()
+        ndim = read_int()
+        shape = tuple(read_long() for _ in range(ndim))
+        strides = tuple(read_long() for _ in range(ndim))
+        size = read_long()
+        a = ArrayFile(code, shape, strides, size, read_str())
+        shm_read.append(a.path)
+        return a
+    protocol_error("Unknown tag: %r" % tag)
+
+
+def build(v):
+    if isinstance(v, Pairs):
+        d = {}
+        for k, x in v:
+            d[build(k)] = build(x)
+        return d
+    elif isinstance(v, list):
+        return [build(x) for x in v]
+    elif isinstance(v, ArrayFile):
+        dtype = np.dtype(DTYPES[v.code])
+        if v.size == 0:
+            return np.zeros(v.shape, dtype)
+        with open(v.path, "rb") as f, mmap.mmap(f.fileno(), v.size, access=mmap.ACCESS_READ) as m:
+            src = np.frombuffer(m, dtype)
+            a = np.lib.stride_tricks.as_strided(src, v.shape, v.strides).copy()
+            del src
+            return a
+    return v
+
+
+def write_int(buf, v):
+    buf.append(struct.pack(">i", v))
+
+
+def write_str(buf, s):
+    b = s.encode("utf-8")
+    write_int(buf, len(b))
+    buf.append(b)
+
+
+def write_value(buf, v):
+    global shm_counter
+    if v is None:
+        buf.append(b"N")
+    elif isinstance(v, (bool, np.bool_)):
+        buf.append(b"T" if v else b"F")
+    elif isinstance(v, (int, np.integer)):
+        buf.append(b"I" + struct.pack(">q", int(v)))
+    elif isinstance(v, (float, np.floating)):
+        buf.append(b"D" + struct.pack(">d", float(v)))
+    elif isinstance(v, str):
+        buf.append(b"S")
+        write_str(buf, v)
+    elif isinstance(v, (bytes, bytearray)):
+        buf.append(b"B")
+        write_int(buf, len(v))
+        buf.append(bytes(v))
+    elif isinstance(v, dict):
+        buf.append(b"M")
+        write_int(buf, len(v))
+        for k, x in v.items():
+            write_value(buf, k)
+            write_value(buf, x)
+    elif isinstance(v, np.ndarray) and v.dtype in CODES:
+        a = np.ascontiguousarray(v)
+        shm_counter += 1
+        path = os.path.join(SHM_DIR, "embeddedpython-%d-%d" % (os.getpid(), shm_counter))
+        shm_written.append(path)
+        with open(path, "w+b") as f:
+            f.truncate(a.nbytes)
+            if a.nbytes > 0:
+                with mmap.mmap(f.fileno(), a.nbytes) as m:
+                    np.frombuffer(m, dtype=a.dtype)[:] = a.reshape(-1)
+        buf.append(b"A")
+        write_str(buf, CODES[a.dtype])
+        write_int(buf, a.ndim)
+        for n in a.shape:
+            buf.append(struct.pack(">q", n))
+        write_str(buf, path)
+    elif hasattr(v, "__iter__"):
+        items = list(v)
+        buf.append(b"L")
+        write_int(buf, len(items))
+        for x in items:
+            write_value(buf, x)
+    else:
+        raise TypeError("Cannot convert the Python object to a Java object. type = " + type(v).__name__)
+
+
+def rss():
+    with open("/proc/self/statm") as f:
+        return int(f.read().split()[1]) * PAGE_SIZE
+
+
+def resolve(name):
+    names = name.split(".")
+    if names[0] in main_globals:
+        obj = main_globals[names[0]]
+    elif hasattr(builtins, names[0]):
+        obj = getattr(builtins, names[0])
+    else:
+        obj = importlib.import_module(names[0])
+    for i in range(1, len(names)):
+        try:
+            obj = getattr(obj, names[i])
+        except AttributeError:
+            obj = importlib.import_module(".".join(names[:i + 1]))
+    return obj
+
+
+def read_request(op):
+    if op in (b"E", b"V", b"G"):
+        return [read_str()]
+    elif op in (b"P", b"C"):
+        return [read_str(), read_value()]
+    elif op == b"H":
+        return []
+    protocol_error("Unknown request: %r" % op)
+
+
+def handle(op, args):
+    if op == b"E":
+        exec(args[0], main_globals)
+        return None
+    elif op == b"V":
+        return eval(args[0], main_globals)
+    elif op == b"P":
+        main_globals[args[0]] = build(args[1])
+        return None
+    elif op == b"G":
+        return main_globals[args[0]]
+    elif op == b"C":
+        return resolve(args[0])(*build(args[1]))
+    elif op == b"H":
+        return None
+
+
+def main():
+    while True:
+        op = read_exact(1)
+        buf = []
+        shm_read.clear()
+        shm_written.clear()
+        args = read_request(op)
+        try:
+            value = handle(op, args)
+            write_value(buf, value)
+            status = b"O"
+        except BaseException as e:
+            if isinstance(e, SystemExit):
+                raise
+            for path in shm_written:
+                os.unlink(path)
+            buf = []
+            write_str(buf, traceback.format_exc())
+            status = b"X"
+        finally:
+            for path in shm_read:
+                os.unlink(path)
+        out.write(status + struct.pack(">q", rss()) + b"".join(buf))
+        out.flush()
+
+
+main()
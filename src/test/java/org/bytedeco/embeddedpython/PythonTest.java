@@ -1,13 +1,25 @@
 package org.bytedeco.embeddedpython;
 
+import org.bytedeco.cpython.PyObject;
+import org.bytedeco.cpython.PyThreadState;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.Index;
 import org.junit.jupiter.api.Test;
 import scala.Function0;
 import scala.Function1;
 import scala.Function2;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
+import static org.bytedeco.cpython.global.python.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class PythonTest {
@@ -308,4 +320,702 @@ public class PythonTest {
         LinkedHashMap<String, Long> map2 = Python.eval("OrderedDict(a=1, b=2)");
         assertEquals(map1, map2);
     }
+
+    @Test
+    public void testCodeCache() {
+        Python.exec("cc = 0");
+        long hitCount = Python.getCodeCacheHitCount();
+        for (int i = 0; i < 3; i++) {
+            Python.exec("cc += 1");
+            long v = Python.eval("cc * 10");
+            assertEquals((i + 1) * 10L, v);
+        }
+        assertTrue(Python.getCodeCacheHitCount() - hitCount >= 4);
+
+        int capacity = Python.getCodeCacheCapacity();
+        try {
+            Python.setCodeCacheCapacity(0);
+            long missCount = Python.getCodeCacheMissCount();
+            assertEquals(2L, (long) Python.eval("1 + 1"));
+            assertEquals(2L, (long) Python.eval("1 + 1"));
+            assertEquals(2, Python.getCodeCacheMissCount() - missCount);
+        } finally {
+            Python.setCodeCacheCapacity(capacity);
+        }
+    }
+
+    @Test
+    public void testPrepare() {
+        Python.exec("import numpy as np");
+        Python.put("offset", 10L);
+        try (PythonStatement stmt = Python.prepare("int(np.sum(ary)) + offset + k", "ary", "k")) {
+            assertTrue(stmt.isExpression());
+            assertEquals(16L, (long) stmt.execute(new long[]{1, 2, 3}, 0));
+            assertEquals(26L, (long) stmt.execute(new long[]{4, 5, 6}, 1));
+            assertThrows(IllegalArgumentException.class, () -> stmt.execute(new long[]{1}));
+        }
+        assertThrows(NoSuchElementException.class, () -> Python.get("ary"));
+
+        try (PythonStatement stmt = Python.prepare("y = x * 2\nresult = y + 1", "x")) {
+            assertFalse(stmt.isExpression());
+            assertNull(stmt.execute(20L));
+            assertThrows(NoSuchElementException.class, () -> Python.get("result"));
+        }
+    }
+
+    @Test
+    public void testCall() {
+        assertEquals(3L, (long) Python.call("len", Arrays.asList(1, 2, 3)));
+        assertEquals(4.0, Python.call("math.sqrt", 16.0), 1e-10);
+        assertEquals("a/b", Python.call("os.path.join", "a", "b"));
+
+        Python.exec("def add(a, b):\n    return a + b\n");
+        assertEquals(5L, (long) Python.call("add", 2, 3));
+
+        Python.exec("import numpy as np");
+        assertEquals(5.0, Python.call("np.linalg.norm", new double[]{3, 4}), 1e-10);
+
+        Python.exec("words = dict(a='x', b='y')");
+        assertEquals("y", Python.callMethod("words", "get", "b"));
+        assertEquals("A/B", Python.callMethod("os.path.sep", "join", Arrays.asList("A", "B")));
+
+        assertThrows(NoSuchElementException.class, () -> Python.call("noSuchFunction"));
+        assertThrows(NoSuchElementException.class, () -> Python.call("noSuchModule.f"));
+        assertThrows(NoSuchElementException.class, () -> Python.call("math.noSuchFunction"));
+        assertThrows(PythonException.class, () -> Python.call("math.sqrt", "a"));
+    }
+
+    @Test
+    public void testPyRef() {
+        Python.exec("import numpy as np");
+        try (PyRef ary = Python.evalRef("np.arange(1000000, dtype=np.float64)");
+             PyRef table = Python.evalRef("dict(a=[1, 2], b=[3, 4])")) {
+            assertEquals(999999.0, Python.callMethod(ary, "max"), 1e-10);
+            assertEquals(1000000L, (long) ary.getAttr("shape").getItem(0).toJava());
+            assertEquals(Arrays.asList(3L, 4L), table.getItem("b").toJava());
+            assertEquals(2.0, ary.callMethodRef("__getitem__", 2).<Double>toJava(), 1e-10);
+
+            try (PyRef sum = Python.callRef("np.sum", ary)) {
+                assertEquals(499999500000.0, sum.toJava(), 1e-10);
+            }
+
+            Python.put("aryAlias", ary);
+            boolean sameSize = Python.eval("aryAlias.size == 1000000");
+            assertTrue(sameSize);
+            try (PyRef aryAlias = Python.getRef("aryAlias")) {
+                assertEquals(1000000L, (long) Python.call("len", aryAlias));
+            }
+
+            table.close();
+            assertTrue(table.isClosed());
+            assertThrows(IllegalStateException.class, () -> table.getItem("a"));
+        }
+    }
+
+    @Test
+    public void testUnreachablePyRef() throws InterruptedException {
+        Python.exec("import weakref\n" +
+                "class RefA: pass\n" +
+                "refA = RefA()\n" +
+                "refW = weakref.ref(refA)");
+        Python.getRef("refA");
+        Python.exec("del refA");
+        // No PyRef is created after this, so the PythonRefReleaser thread releases it.
+        for (int i = 0; i < 100 && !(Boolean) Python.eval("refW() is None"); i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertTrue((Boolean) Python.eval("refW() is None"));
+    }
+
+    @Test
+    public void testParallelSleep() throws InterruptedException {
+        Python.exec("import time");
+        Thread[] threads = new Thread[4];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> Python.exec("time.sleep(0.5)"));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        assertTrue(elapsed < 1.5, "elapsed = " + elapsed);
+    }
+
+    @Test
+    public void testReentrantLambda() {
+        Python.put("g", (Function1<Long, Long>) x -> Python.<Long>eval("100 + " + x));
+        long v = Python.eval("g(1) + g(2)");
+        assertEquals(203L, v);
+    }
+
+    @Test
+    public void testInterpreterPool() {
+        try (PythonInterpreterPool pool = new PythonInterpreterPool(2)) {
+            pool.putAll("n", 1000);
+            pool.execAll("def f(x): return sum(i * i for i in range(x))");
+            long v = pool.call("f", 10);
+            assertEquals(285L, v);
+            long n = pool.eval("n");
+            assertEquals(1000L, n);
+            pool.execute(interpreter -> {
+                interpreter.put("a", Arrays.asList(1L, "x"));
+                assertEquals(Arrays.asList(1L, "x"), interpreter.get("a"));
+                return null;
+            });
+            assertThrows(PythonException.class, () -> pool.execute(interpreter -> {
+                interpreter.put("a", new int[]{1, 2});
+                return null;
+            }));
+        }
+        long v = Python.eval("1 + 2");
+        assertEquals(3L, v);
+    }
+
+    @Test
+    public void testWorkerPool() {
+        try (PythonWorkerPool pool = new PythonWorkerPool(2, 3, 0)) {
+            pool.execAll("import numpy as np");
+            pool.putAll("a", new NpNdarrayInt(new int[][]{{1, 2, 3}, {4, 5, 6}}));
+            for (int i = 0; i < 5; i++) {
+                NpNdarrayInt t = pool.eval("a.T.copy()");
+                assertArrayEquals(new int[]{3, 2}, t.shape);
+                assertEquals(4, t.toArray2d()[0][1]);
+            }
+            NpNdarrayDouble v = pool.call("np.cumsum", new double[]{1, 2, 3});
+            assertArrayEquals(new double[]{1, 3, 6}, v.toArray(), 1e-10);
+            assertEquals(Arrays.asList(1L, "x", null), pool.eval("(1, 'x', None)"));
+            assertThrows(PythonException.class, () -> pool.eval("1 / 0"));
+            long n = pool.eval("int(a.sum())");
+            assertEquals(21L, n);
+            assertEquals(0, pool.checkHealth());
+
+            // The request is read to the end even if building the value fails.
+            Map<Object, Object> unhashable = new LinkedHashMap<>();
+            unhashable.put(Arrays.asList(1, 2), 1);
+            unhashable.put("b", new double[]{1, 2});
+            long files = countShmFiles();
+            pool.execute(worker -> {
+                assertThrows(PythonException.class, () -> worker.put("unhashableA", unhashable));
+                assertTrue(worker.isAlive());
+                assertEquals(3L, (Long) worker.eval("1 + 2"));
+                return null;
+            });
+            assertEquals(files, countShmFiles());
+
+            // The recycled workers get the latest value.
+            pool.putAll("a", 7);
+            for (int i = 0; i < 8; i++) {
+                assertEquals(7L, (Long) pool.eval("a"));
+            }
+        }
+    }
+
+    private static long countShmFiles() {
+        File[] files = new File("/dev/shm").listFiles((dir, name) -> name.startsWith("embeddedpython-"));
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        PythonAsync async = Python.async();
+        async.put("asyncA", 1.5);
+        async.exec("asyncB = asyncA * 2");
+        CompletableFuture<Double> b = async.get("asyncB");
+        CompletableFuture<Long> len = async.call("len", Arrays.asList(1, 2, 3));
+        CompletableFuture<Object> error = async.eval("1 / 0");
+        assertEquals(3.0, b.get(), 1e-10);
+        assertEquals(3L, len.get());
+        ExecutionException e = assertThrows(ExecutionException.class, error::get);
+        assertTrue(e.getCause() instanceof PythonException);
+        CompletableFuture<Object> missing = async.get("asyncMissing");
+        e = assertThrows(ExecutionException.class, missing::get);
+        assertTrue(e.getCause() instanceof NoSuchElementException);
+    }
+
+    @Test
+    public void testBatch() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("batchA", 355L);
+        values.put("batchB", 113L);
+        PythonSession[] leaked = new PythonSession[1];
+        double v = Python.batch(session -> {
+            leaked[0] = session;
+            session.putAll(values);
+            session.put("batchC", 2);
+            session.exec("batchV = batchA / batchB * batchC");
+            assertEquals(3L, (long) session.call("len", "abc"));
+            return session.get("batchV");
+        });
+        assertEquals(355.0 / 113 * 2, v, 1e-10);
+        assertThrows(IllegalStateException.class, () -> leaked[0].get("batchV"));
+
+        List<Long> shared = Arrays.asList(1L, 2L);
+        Map<String, Object> sharing = new LinkedHashMap<>();
+        sharing.put("batchS1", shared);
+        sharing.put("batchS2", shared);
+        boolean same = Python.batch(session -> {
+            session.putAll(sharing);
+            return session.eval("batchS1 is batchS2");
+        });
+        assertTrue(same);
+        Map<String, Object> broken = new LinkedHashMap<>();
+        broken.put("batchE1", 1L);
+        broken.put("batchE2", new Object());
+        assertThrows(PythonException.class, () -> Python.batch(session -> {
+            session.putAll(broken);
+            return null;
+        }));
+        assertThrows(NoSuchElementException.class, () -> Python.get("batchE1"));
+
+        // A converter uses the session while the session converts a list sharing an element.
+        PyConverter converter = new PyConverter() {
+            @Override
+            public Collection<String> pythonTypeNames() {
+                return Collections.singletonList("builtins.complex");
+            }
+
+            @Override
+            public PyObject toPython(Object value, Context context) {
+                return null;
+            }
+
+            @Override
+            public Object toJava(PyObject obj, Context context) {
+                return leaked[0].<Long>get("batchA");
+            }
+        };
+        Python.registerConverter(converter);
+        try {
+            Python.exec("batchX = [1]; batchL = [batchX, 1j, batchX]");
+            List<Object> list = Python.batch(session -> {
+                leaked[0] = session;
+                return session.get("batchL");
+            });
+            assertEquals(355L, list.get(1));
+            assertSame(list.get(0), list.get(2));
+        } finally {
+            Python.unregisterConverter(converter);
+        }
+    }
+
+    @Test
+    public void testNamespace() {
+        Python.put("nsA", 1);
+        try (PythonNamespace ns1 = new PythonNamespace(); PythonNamespace ns2 = new PythonNamespace()) {
+            ns1.put("nsA", 2);
+            ns2.put("nsA", 3);
+            ns1.exec("import numpy as np\ndef f(x): return x * nsA");
+            long v1 = ns1.call("f", 10);
+            long v2 = ns2.eval("nsA + len('ab')");
+            assertEquals(20L, v1);
+            assertEquals(5L, v2);
+            assertThrows(NoSuchElementException.class, () -> ns2.get("f"));
+            long a = Python.get("nsA");
+            assertEquals(1L, a);
+            ns1.close();
+            assertTrue(ns1.isClosed());
+            assertThrows(IllegalStateException.class, () -> ns1.get("nsA"));
+        }
+    }
+
+    @Test
+    public void testNdarrayView() {
+        Python.exec("import numpy as np; viewA = np.arange(12, dtype=np.float32).reshape(3, 4)");
+        Python.setNdarrayViewThreshold(32);
+        try (NpNdarrayView view = Python.get("viewA")) {
+            assertEquals(NpDtype.FLOAT32, view.dtype());
+            assertArrayEquals(new int[]{3, 4}, view.shape);
+            assertEquals(48, view.byteSize());
+            FloatBuffer buf = view.buffer().asFloatBuffer();
+            assertEquals(6f, buf.get((int) view.byteOffset(1, 2) / 4));
+            buf.put(0, 100f);
+            double v = Python.eval("float(viewA[0, 0])");
+            assertEquals(100.0, v);
+            NpNdarrayFloat small = Python.eval("viewA[0, :2].copy()");
+            assertArrayEquals(new float[]{100f, 1f}, small.data);
+            Python.put("viewB", view);
+            boolean same = Python.eval("viewA is viewB");
+            assertTrue(same);
+            view.close();
+            assertTrue(view.isClosed());
+            assertThrows(IllegalStateException.class, view::buffer);
+        } finally {
+            Python.setNdarrayViewThreshold(Long.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void testNdarrayViewOfJavaMemory() {
+        FloatBuffer buf = ByteBuffer.allocateDirect(6 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (int i = 0; i < 6; i++) buf.put(i, i);
+        Python.put("viewJ", NpNdarrayView.of(buf, NpDtype.FLOAT32, 2, 3));
+        Python.exec("viewJ[1, 2] = 50");
+        assertEquals(50f, buf.get(5));
+        double v = Python.eval("float(viewJ.sum())");
+        assertEquals(60.0, v);
+
+        try (FloatPointer ptr = new FloatPointer(1f, 2f, 3f, 4f)) {
+            FloatIndexer idx = FloatIndexer.create(ptr, new long[]{2, 2});
+            NpNdarrayFloat t = Python.call("np.transpose", NpNdarrayView.of(idx, NpDtype.FLOAT32));
+            assertArrayEquals(new int[]{2, 2}, t.shape);
+            assertEquals(3f, t.toArray2d()[0][1]);
+            assertThrows(IllegalArgumentException.class, () -> NpNdarrayView.of(ptr, NpDtype.FLOAT32, 5));
+            // The first column.
+            FloatIndexer column = FloatIndexer.create(ptr, Index.create(new long[]{2}, new long[]{2}));
+            NpNdarrayFloat c = Python.call("np.copy", NpNdarrayView.of(column, NpDtype.FLOAT32));
+            assertArrayEquals(new float[]{1f, 3f}, c.toArray());
+        }
+        FloatBuffer bigEndian = ByteBuffer.allocateDirect(6 * 4).order(ByteOrder.BIG_ENDIAN).asFloatBuffer();
+        if (ByteOrder.nativeOrder() != ByteOrder.BIG_ENDIAN) {
+            assertThrows(IllegalArgumentException.class, () -> NpNdarrayView.of(bigEndian, NpDtype.FLOAT32, 6));
+            assertThrows(IllegalArgumentException.class,
+                    () -> NpNdarrayView.of(FloatIndexer.create(bigEndian), NpDtype.FLOAT32));
+        }
+        Python.exec("del viewJ");
+    }
+
+    @Test
+    public void testNumpyOwnedArray() {
+        Python.put("ownA", new int[]{1, 2, 3});
+        Python.put("ownB", new NpNdarrayInt(new int[]{1, 2, 3, 4, 5, 6}, new int[]{2, 2}, new int[]{3, 1}));
+        System.gc();
+        boolean owndata = Python.eval("bool(ownA.flags.owndata and ownB.base.flags.owndata)");
+        assertTrue(owndata);
+        long sumA = Python.eval("int(ownA.sum())");
+        assertEquals(6L, sumA);
+        boolean b = Python.eval("ownB.tolist() == [[1, 2], [4, 5]]");
+        assertTrue(b);
+    }
+
+    @Test
+    public void testStridedNdarray() {
+        Python.exec("import numpy as np; strA = np.arange(12, dtype=np.float64).reshape(3, 4)");
+        NpNdarrayDouble sliced = Python.eval("strA[:, ::2]");
+        assertArrayEquals(new double[][]{{0, 2}, {4, 6}, {8, 10}}, sliced.toArray2d());
+        NpNdarrayDouble block = Python.eval("strA[1:, 1:3]");
+        assertArrayEquals(new double[][]{{5, 6}, {9, 10}}, block.toArray2d());
+        NpNdarrayDouble swapped = Python.eval("strA.reshape(3, 2, 2).transpose(1, 0, 2)[:, ::-1, ::-1]");
+        assertArrayEquals(new double[]{9, 8, 5, 4, 1, 0, 11, 10, 7, 6, 3, 2}, swapped.data);
+        NpNdarrayDouble reversed = Python.eval("strA[::-1, ::-1]");
+        assertArrayEquals(new double[][]{{11, 10, 9, 8}, {7, 6, 5, 4}, {3, 2, 1, 0}}, reversed.toArray2d());
+        NpNdarrayDouble transposed = Python.eval("strA.T");
+        assertArrayEquals(new int[]{1, 4}, transposed.strides);
+        assertArrayEquals(new double[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11}, transposed.data);
+        assertArrayEquals(new double[][]{{0, 4, 8}, {1, 5, 9}, {2, 6, 10}, {3, 7, 11}}, transposed.toArray2d());
+        NpNdarrayInt column = Python.eval("np.arange(6, dtype=np.int32).reshape(2, 3)[:, 1]");
+        assertArrayEquals(new int[]{1, 4}, column.toArray());
+    }
+
+    @Test
+    public void testPrimitiveListConversion() {
+        List<Object> boxed = Python.eval("[1.5, 2.5]");
+        assertEquals(Arrays.asList(1.5, 2.5), boxed);
+        Python.setPrimitiveListConversion(true);
+        try {
+            double[] doubles = Python.eval("[1.5, 2.5]");
+            assertArrayEquals(new double[]{1.5, 2.5}, doubles);
+            long[] longs = Python.eval("(1, 2, 3)");
+            assertArrayEquals(new long[]{1, 2, 3}, longs);
+            NpNdarrayLong nested = Python.eval("[[1, 2, 3], [4, 5, 6]]");
+            assertArrayEquals(new long[][]{{1, 2, 3}, {4, 5, 6}}, nested.toArray2d());
+            List<Object> mixed = Python.eval("[1, 2.5]");
+            assertEquals(Arrays.asList(1L, 2.5), mixed);
+            List<Object> ragged = Python.eval("[[1, 2], [3]]");
+            assertEquals(2, ragged.size());
+            List<Object> bools = Python.eval("[True, False]");
+            assertEquals(Arrays.asList(true, false), bools);
+
+            Python.exec("selfA = [1.0]\n" +
+                    "selfA[0] = selfA");
+            List<?> selfA = Python.get("selfA");
+            assertSame(selfA, selfA.get(0));
+            Python.setMaxConversionDepth(200000);
+            Python.exec("deepC = 1.0\n" +
+                    "for _ in range(100000):\n" +
+                    "    deepC = [deepC]");
+            NpNdarrayDouble deepC = Python.get("deepC");
+            assertEquals(100000, deepC.ndim());
+            assertArrayEquals(new double[]{1.0}, deepC.data);
+        } finally {
+            Python.setMaxConversionDepth(10000);
+            Python.setPrimitiveListConversion(false);
+        }
+    }
+
+    @Test
+    public void testTypedGet() {
+        Python.exec("import numpy as np; typedA = [[1.5, 2.5], [3.5, 4.5]]");
+        float[][] floats = Python.get("typedA", float[][].class);
+        assertArrayEquals(new float[][]{{1.5f, 2.5f}, {3.5f, 4.5f}}, floats);
+        NpNdarrayDouble ndary = Python.get("typedA", NpNdarrayDouble.class);
+        assertArrayEquals(new int[]{2, 2}, ndary.shape);
+        double[] doubles = Python.eval("np.arange(3) * 0.5", double[].class);
+        assertArrayEquals(new double[]{0, 0.5, 1}, doubles);
+        double d = Python.eval("3", double.class);
+        assertEquals(3.0, d);
+        int i = Python.eval("np.int64(7)", int.class);
+        assertEquals(7, i);
+        String str = Python.eval("'abc'", String.class);
+        assertEquals("abc", str);
+        Map<?, ?> map = Python.eval("{'a': 1.5}", Map.class);
+        assertEquals(1.5, map.get("a"));
+        assertThrows(PythonException.class, () -> Python.eval("2 ** 40", int.class));
+        assertThrows(PythonException.class, () -> Python.eval("'abc'", long.class));
+        assertThrows(PythonException.class, () -> Python.get("typedA", double[].class));
+        assertThrows(PythonException.class, () -> Python.eval("np.array([1.5, 2.7])", long[].class));
+        assertThrows(PythonException.class, () -> Python.eval("[1.5, 2.7]", int[].class));
+        assertArrayEquals(new int[]{1, 2}, Python.eval("np.array([1, 2])", int[].class));
+        assertArrayEquals(new long[0], Python.eval("[]", long[].class));
+        PythonException range = assertThrows(PythonException.class, () -> Python.eval("[1, 2 ** 40]", int[].class));
+        assertTrue(range.getMessage().contains("out of range of int"));
+        assertThrows(PythonException.class, () -> Python.eval("np.array([-1], dtype=np.int8)", char[].class));
+        assertThrows(PythonException.class, () -> Python.eval("np.array([2 ** 63], dtype=np.uint64)", long[].class));
+        assertArrayEquals(new short[]{-3, 300}, Python.eval("[-3, 300]", short[].class));
+        assertThrows(PythonException.class, () -> Python.eval("[True, False]", long[].class));
+        assertThrows(PythonException.class, () -> Python.eval("np.array([True])", NpNdarrayInt.class));
+        assertThrows(PythonException.class, () -> Python.eval("'abc'", Map.class));
+    }
+
+    @Test
+    public void testPrimitiveGetters() {
+        Python.exec("import numpy as np; primA = 2.5; primB = np.int32(7); primC = np.bool_(True)");
+        assertEquals(2.5, Python.getDouble("primA"));
+        assertEquals(7.0, Python.getDouble("primB"));
+        assertEquals(7L, Python.getLong("primB"));
+        assertTrue(Python.getBoolean("primC"));
+        assertFalse(Python.evalBoolean("1 > 2"));
+        assertEquals(6L, Python.evalLong("primB - 1"));
+        assertEquals(5.0, Python.evalDouble("primA * 2"));
+        assertThrows(PythonException.class, () -> Python.getLong("primA"));
+        Python.exec("primD = True");
+        assertThrows(PythonException.class, () -> Python.getLong("primD"));
+        assertThrows(PythonException.class, () -> Python.get("primD", long.class));
+        assertThrows(PythonException.class, () -> Python.getDouble("primD"));
+        assertThrows(PythonException.class, () -> Python.get("primD", double.class));
+        assertThrows(PythonException.class, () -> Python.getDouble("primC"));
+        assertThrows(PythonException.class, () -> Python.eval("[True, False]", double[].class));
+        PythonException range = assertThrows(PythonException.class, () -> Python.evalLong("-2 ** 63 - 1"));
+        assertTrue(range.getMessage().contains("out of range of long"));
+        assertEquals(Long.MIN_VALUE, Python.evalLong("-2 ** 63"));
+        assertThrows(PythonException.class, () -> Python.evalLong("2 ** 64"));
+        assertThrows(PythonException.class, () -> Python.evalBoolean("1"));
+        assertThrows(NoSuchElementException.class, () -> Python.getDouble("primZ"));
+    }
+
+    @Test
+    public void testTypeTreeMessage() {
+        Python.exec("import uuid; treeA = dict(a=list(range(100000)) + [uuid.uuid4()])");
+        PythonException e = assertThrows(PythonException.class, () -> Python.get("treeA"));
+        assertTrue(e.getMessage().contains("  dict\n" +
+                "    [0] item\n" +
+                "      [1] iterable(list)\n" +
+                "        [100000] UUID  <- Unsupported\n"), e.getMessage());
+    }
+
+    @Test
+    public void testThreadStateDeletion() throws Exception {
+        int before = countThreadStates();
+        for (int i = 0; i < 20; i++) {
+            Thread thread = new Thread(() -> Python.eval("1 + 1"));
+            thread.start();
+            thread.join();
+        }
+        for (int i = 0; i < 100 && countThreadStates() > before; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertTrue(countThreadStates() <= before);
+        assertEquals(2L, (Long) Python.eval("1 + 1"));
+    }
+
+    private static int countThreadStates() {
+        return Python.withGIL(() -> {
+            int n = 0;
+            for (PyThreadState t = PyInterpreterState_ThreadHead(PyInterpreterState_Main()); t != null;
+                 t = PyThreadState_Next(t)) {
+                n++;
+            }
+            return n;
+        });
+    }
+
+    @Test
+    public void testSubclassConversion() {
+        Python.exec("import numpy as np\n" +
+                "class MyFloat(float): pass\n" +
+                "class MyList(list): pass\n" +
+                "class MyInt(int): pass");
+        for (int i = 0; i < 2; i++) {
+            List<Object> list = Python.eval("MyList([MyFloat(1.5), MyInt(2), np.float32(3), True])");
+            assertEquals(Arrays.asList(1.5, 2L, 3.0f, true), list);
+        }
+        Python.exec("class Weird: pass");
+        assertThrows(PythonException.class, () -> Python.eval("Weird()"));
+        assertThrows(PythonException.class, () -> Python.eval("Weird()"));
+
+        // The cached converter doesn't keep the class alive.
+        for (int i = 0; i < 100; i++) {
+            Python.exec("import gc, weakref\n" +
+                    "class TempList(list): pass\n" +
+                    "tempRef = weakref.ref(TempList)");
+            assertEquals(Collections.singletonList(1L), Python.eval("TempList([1])"));
+            Python.exec("del TempList\n" +
+                    "gc.collect()");
+            assertTrue(Python.evalBoolean("tempRef() is None"));
+        }
+    }
+
+    static class Complex {
+        final double re;
+        final double im;
+
+        Complex(double re, double im) {
+            this.re = re;
+            this.im = im;
+        }
+    }
+
+    @Test
+    public void testRegisterConverter() {
+        assertThrows(PythonException.class, () -> Python.eval("1+2j"));
+
+        PyConverter converter = new PyConverter() {
+            @Override
+            public Collection<Class<?>> javaClasses() {
+                return Collections.singletonList(Complex.class);
+            }
+
+            @Override
+            public PyObject toPython(Object value, Context context) {
+                Complex c = (Complex) value;
+                return PyComplex_FromDoubles(c.re, c.im);
+            }
+
+            @Override
+            public Collection<String> pythonTypeNames() {
+                return Collections.singletonList("builtins.complex");
+            }
+
+            @Override
+            public Object toJava(PyObject obj, Context context) {
+                return new Complex(PyComplex_RealAsDouble(obj), PyComplex_ImagAsDouble(obj));
+            }
+        };
+        Python.registerConverter(converter);
+        try {
+            Complex c = Python.eval("1+2j");
+            assertEquals(1.0, c.re);
+            assertEquals(2.0, c.im);
+
+            Python.put("cs", Arrays.asList(new Complex(1, 2), new Complex(3, 4)));
+            List<Complex> cs = Python.eval("[c * 2 for c in cs]");
+            assertEquals(6.0, cs.get(1).re);
+            assertEquals(8.0, cs.get(1).im);
+
+            Python.exec("class MyComplex(complex): pass");
+            Complex sub = Python.eval("MyComplex(5, 6)");
+            assertEquals(6.0, sub.im);
+        } finally {
+            Python.unregisterConverter(converter);
+        }
+        assertThrows(PythonException.class, () -> Python.eval("1+2j"));
+        assertThrows(PythonException.class, () -> Python.put("cs", new Complex(1, 2)));
+    }
+
+    @Test
+    public void testDeeplyNestedConversion() {
+        Python.exec("deepA = []\n" +
+                "cur = deepA\n" +
+                "for _ in range(100000):\n" +
+                "    cur.append([])\n" +
+                "    cur = cur[0]");
+        PythonException e = assertThrows(PythonException.class, () -> Python.get("deepA"));
+        assertTrue(e.getMessage().contains("nested deeper than 10000"), e.getMessage());
+        assertTrue(e.getMessage().contains("levels"), e.getMessage());
+
+        Python.setMaxConversionDepth(200000);
+        try {
+            List<?> list = Python.get("deepA");
+            int depth = 0;
+            while (!list.isEmpty()) {
+                list = (List<?>) list.get(0);
+                depth++;
+            }
+            assertEquals(100000, depth);
+
+            List<Object> deepB = new ArrayList<>();
+            List<Object> cur = deepB;
+            for (int i = 0; i < 100000; i++) {
+                List<Object> next = new ArrayList<>();
+                cur.add(next);
+                cur = next;
+            }
+            Python.put("deepB", deepB);
+            Python.exec("depthB = 0\n" +
+                    "cur = deepB\n" +
+                    "while cur:\n" +
+                    "    cur = cur[0]\n" +
+                    "    depthB += 1");
+            assertEquals(100000L, Python.getLong("depthB"));
+        } finally {
+            Python.setMaxConversionDepth(10000);
+        }
+
+        Python.setMaxConversionSize(10);
+        try {
+            assertThrows(PythonException.class, () -> Python.eval("list(range(10))"));
+            assertThrows(PythonException.class, () -> Python.put("sizeA", Collections.nCopies(10, 1)));
+            assertEquals(Arrays.asList(0L, 1L, 2L), Python.eval("list(range(3))"));
+        } finally {
+            Python.setMaxConversionSize(Long.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void testSharedObjectConversion() {
+        Python.exec("metaA = {'unit': 'm'}\n" +
+                "rowsA = [metaA] * 1000\n" +
+                "cycleA = [1]\n" +
+                "cycleA.append(cycleA)");
+        List<Map<String, String>> rows = Python.get("rowsA");
+        assertEquals("m", rows.get(0).get("unit"));
+        assertSame(rows.get(0), rows.get(999));
+
+        List<Object> cycle = Python.get("cycleA");
+        assertEquals(1L, cycle.get(0));
+        assertSame(cycle, cycle.get(1));
+
+        // Each item of a generator is not recorded and freed after conversion, so its address can be reused.
+        List<List<Long>> generated = Python.eval("([i] for i in range(100))");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Collections.singletonList((long) i), generated.get(i));
+        }
+
+        Map<String, Object> meta = new HashMap<>();
+        meta.put("unit", "m");
+        List<Object> cycleB = new ArrayList<>();
+        cycleB.add(meta);
+        cycleB.add(meta);
+        cycleB.add(cycleB);
+        Python.put("cycleB", cycleB);
+        assertTrue(Python.evalBoolean("cycleB[0] is cycleB[1] and cycleB[2] is cycleB"));
+    }
+
+    @Test
+    public void testStringRepresentations() {
+        String[] strings = {"", "abc", "caf\u00e9", "\u65e5\u672c\u8a9e", "a\ud83d\ude00b", "\ud800", "\u00e9\ud83d\ude00\udc00"};
+        String[] literals = {"''", "'abc'", "'caf\\xe9'", "'\\u65e5\\u672c\\u8a9e'", "'a\\U0001f600b'", "'\\ud800'",
+                "'\\xe9\\U0001f600\\udc00'"};
+        for (int i = 0; i < strings.length; i++) {
+            Python.put("strA", strings[i]);
+            assertTrue(Python.evalBoolean("strA == " + literals[i] + " and hash(strA) == hash(" + literals[i] + ")"),
+                    literals[i]);
+            assertEquals(strings[i], Python.eval(literals[i]));
+        }
+        Python.put("strB", "a\ud83d\ude00b");
+        assertEquals(3L, Python.evalLong("len(strB)"));
+    }
 }